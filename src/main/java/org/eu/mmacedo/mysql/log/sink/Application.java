@@ -5,9 +5,7 @@ import static pl.touk.throwing.ThrowingSupplier.unchecked;
 import java.io.File;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
@@ -15,19 +13,28 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.eu.mmacedo.mysql.log.sink.domain.LogBatch;
+import org.eu.mmacedo.mysql.log.sink.service.DaemonService;
 import org.eu.mmacedo.mysql.log.sink.service.InboundFileSource;
 import org.eu.mmacedo.mysql.log.sink.service.OutboundMysqlSink;
 import org.eu.mmacedo.mysql.log.sink.service.QueryThresholdService;
+import org.eu.mmacedo.mysql.log.sink.service.ShardRouter;
+import org.eu.mmacedo.mysql.log.sink.util.LogBatchPool;
+import org.eu.mmacedo.mysql.log.sink.util.StartupClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -48,7 +55,7 @@ public class Application {
 
 	private static final String ENABLE = "ALTER TABLE log ENABLE KEYS";
 
-	private static final String[] DURATIONS = { "hourly", "daily" };
+	private static final String[] REQUIRED = { "duration", "threshold" };
 
 	private static ConsoleReporter startReport(final MetricRegistry metrics) {
 		final ConsoleReporter reporter = ConsoleReporter.forRegistry(metrics).convertRatesTo(TimeUnit.SECONDS)
@@ -93,10 +100,21 @@ public class Application {
 	 * @return
 	 */
 	@Bean
-	public LinkedTransferQueue<Optional<List<Map<Integer, CompletableFuture<?>>>>> batchQueue() {
+	public LinkedTransferQueue<Optional<LogBatch>> batchQueue() {
 		return new LinkedTransferQueue<>();
 	}
 
+	/**
+	 * Recycled batches for the sink
+	 *
+	 * @return
+	 */
+	@Bean
+	public LogBatchPool batchPool(@Value("${batchSize}") final Integer batchSize,
+			@Value("${batchPoolSize}") final Integer batchPoolSize, final ShardRouter router) {
+		return new LogBatchPool(batchSize, batchPoolSize + router.getPooledBatches());
+	}
+
 	private static void disableKeys(final JdbcTemplate jdbcTemplate) {
 		jdbcTemplate.execute(DISABLE);
 	}
@@ -108,53 +126,48 @@ public class Application {
 	public static void main(final String[] args) throws Exception {
 		final Options options = new Options();
 		final Option startDateOption = Option.builder().longOpt("startDate").hasArg().desc("Start Date in ").build();
-		final Option duration = Option.builder().longOpt("duration").hasArg().required()
+		final Option duration = Option.builder().longOpt("duration").hasArg()
 				.desc("Duration interval (hourly or daily)").build();
-		final Option thresholdOption = Option.builder().longOpt("threshold").hasArg().required()
+		final Option thresholdOption = Option.builder().longOpt("threshold").hasArg()
 				.desc("Threshold limit (integer >0) ").build();
 		final Option url = Option.builder().longOpt("spring.datasource.url").hasArg().desc("database url").build();
 		final Option file = Option.builder().longOpt("accesslog").hasArg().desc("Access file to process").build();
+		final Option shardsOption = Option.builder().longOpt("shards").hasArg()
+				.desc("semicolon separated shard database urls").build();
 		final Option ansi = Option.builder().longOpt("spring.output.ansi.enabled").hasArg().build();
 		options.addOption("c", "clear", false, "empty database before processing");
 		options.addOption("q", "query", false, "no processing sink, just query");
+		options.addOption("s", "server", false, "stay resident, follow accesslog and serve queries over http");
 		options.addOption("h", "help", false, "show help.");
+		options.addOption("f", "fast", false, "fast start, lazy beans and skip flyway when schema is current");
 		options.addOption(startDateOption);
 		options.addOption(duration);
 		options.addOption(thresholdOption);
 		options.addOption(url);
 		options.addOption(file);
+		options.addOption(shardsOption);
 		options.addOption(ansi);
 
-		final Options optionsHelp = new Options();
-		final Option durationHelp = Option.builder().longOpt("duration").hasArg()
-				.desc("Duration interval (hourly or daily)").build();
-		final Option thresholdHelp = Option.builder().longOpt("threshold").hasArg()
-				.desc("Threshold limit (integer >0) ").build();
-		optionsHelp.addOption("c", "clear", false, "clear logs database before processing");
-		optionsHelp.addOption("q", "query", false, "no processing sink, just query");
-		optionsHelp.addOption("h", "help", false, "show help.");
-		optionsHelp.addOption(startDateOption);
-		optionsHelp.addOption(durationHelp);
-		optionsHelp.addOption(thresholdHelp);
-		optionsHelp.addOption(url);
-		optionsHelp.addOption(file);
-		optionsHelp.addOption(ansi);
-		final CommandLineParser help = new DefaultParser();
+		final CommandLineParser parser = new DefaultParser();
 
 		try {
-			final CommandLine lineHelp = help.parse(optionsHelp, args);
-			if (lineHelp.hasOption("h")) {
+			// single parse, required options are checked once help is ruled out
+			final CommandLine line = parser.parse(options, args);
+			if (line.hasOption("h")) {
 				final HelpFormatter formater = new HelpFormatter();
 				formater.printHelp("Mysql.Log.Sink", options);
 				System.exit(0);
 			}
+			final List<String> missing = Stream.of(REQUIRED).filter(o -> !line.hasOption(o))
+					.collect(Collectors.toList());
+			if (!missing.isEmpty()) {
+				throw new MissingOptionException(missing);
+			}
 
-			final CommandLineParser parser = new DefaultParser();
-			final CommandLine line = parser.parse(options, args);
 			String dstring = "hourly";
 			if (line.hasOption("duration")) {
 				dstring = line.getOptionValue("duration").trim().toLowerCase();
-				if (!Arrays.asList(DURATIONS).contains(dstring)) {
+				if (!QueryThresholdService.isDuration(dstring)) {
 					LOGGER.error("Duration should be either hourly or daily: " + dstring);
 					final HelpFormatter formater = new HelpFormatter();
 					formater.printHelp("Mysql.Log.Sink", options);
@@ -176,7 +189,12 @@ public class Application {
 				LOGGER.info("Threshold: \t {}", tstring);
 			}
 
-			final ConfigurableApplicationContext ctx = SpringApplication.run(Application.class, args);
+			final SpringApplication app = new SpringApplication(Application.class);
+			if (line.hasOption("f")) {
+				app.setAdditionalProfiles(FastStartConfiguration.PROFILE);
+			}
+			final ConfigurableApplicationContext ctx = app.run(args);
+			LOGGER.info("Context started in {} ms", StartupClock.sinceStart());
 			final Environment env = ctx.getBean(Environment.class);
 			LocalDateTime startDate = null;
 			if (line.hasOption("startDate")) {
@@ -202,7 +220,6 @@ public class Application {
 			final MetricRegistry metrics = ctx.getBean(MetricRegistry.class);
 			final ConsoleReporter reporter = startReport(metrics);
 
-			final JdbcTemplate jdbcTemplate = ctx.getBean(JdbcTemplate.class);
 			final QueryThresholdService qry = ctx.getBean(QueryThresholdService.class);
 
 			if (line.hasOption("c")) {
@@ -231,9 +248,17 @@ public class Application {
 				}
 			}
 
+			if (line.hasOption("s")) {
+				LOGGER.info("Starting server mode");
+				// only a cleared database is loaded from the start of the file
+				ctx.getBean(DaemonService.class).run(accesslog, dstring, threshold, line.hasOption("c"));
+				return;
+			}
+
 			if (!line.hasOption("q")) {
 				final Timer timer = metrics.timer("Bulk insert");
-				disableKeys(jdbcTemplate);
+				final List<JdbcTemplate> shards = ctx.getBean(ShardRouter.class).getShards();
+				shards.forEach(Application::disableKeys);
 				LOGGER.info("disabled keys for faster bulk insert");
 				final ExecutorService theExecutor = ctx.getBean(ExecutorService.class);
 				final OutboundMysqlSink sink = ctx.getBean(OutboundMysqlSink.class);
@@ -247,18 +272,13 @@ public class Application {
 				in.run(accesslog);
 				bulk.stop();
 				LOGGER.info("bulk insert finished");
-				enableKeys(jdbcTemplate);
+				shards.forEach(Application::enableKeys);
 				LOGGER.info("keys for table log re-enabled");
 			} else {
 				LOGGER.info("By passing bulk insert");
 			}
 
-			LocalDateTime endDate;
-			if ("hourly".equals(dstring)) {
-				endDate = startDate.plusHours(1);
-			} else {
-				endDate = startDate.plusDays(1);
-			}
+			final LocalDateTime endDate = QueryThresholdService.getEndDate(startDate, dstring);
 			qry.run(startDate, endDate, threshold);
 			LOGGER.info("Stats: \n");
 			reporter.report();
@@ -0,0 +1,84 @@
+package org.eu.mmacedo.mysql.log.sink;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eu.mmacedo.mysql.log.sink.util.SchemaVersion;
+import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Beans active with --fast, trading startup work for laziness
+ */
+@Configuration
+@Profile(FastStartConfiguration.PROFILE)
+@PropertySource(value = "classpath:" + SchemaVersion.RESOURCE, ignoreResourceNotFound = true)
+public class FastStartConfiguration {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FastStartConfiguration.class);
+
+	public static final String PROFILE = "fast";
+
+	private static final String VERSION = "SELECT `version` FROM `%s` WHERE `success` = 1 AND `version` IS NOT NULL ORDER BY `installed_rank` DESC LIMIT 1";
+
+	// must stay eager, nothing else depends on them
+	private static final List<String> EAGER = Arrays.asList("flywayInitializer");
+
+	/**
+	 * Only beans the chosen mode asks for get created, so --query never builds
+	 * the file source or the executor
+	 *
+	 * @return
+	 */
+	@Bean
+	public static BeanFactoryPostProcessor lazyInit() {
+		return beanFactory -> Arrays.stream(beanFactory.getBeanDefinitionNames()).filter(n -> !EAGER.contains(n))
+				.forEach(n -> beanFactory.getBeanDefinition(n).setLazyInit(true));
+	}
+
+	private static String getSchemaVersion(final Flyway flyway) {
+		try {
+			final String sql = String.format(VERSION, flyway.getTable());
+			return new JdbcTemplate(flyway.getDataSource()).queryForObject(sql, String.class);
+		} catch (final DataAccessException e) {
+			return null; // no history yet
+		}
+	}
+
+	/**
+	 * Skip migration scanning and validation when the recorded version already
+	 * matches the highest migration found by the build. Refuses a database
+	 * newer than the build.
+	 *
+	 * @return
+	 */
+	@Bean
+	public FlywayMigrationStrategy skipCurrentSchema(@Value("${schema.version:}") final String version) {
+		return flyway -> {
+			final String recorded = getSchemaVersion(flyway);
+			if (version.isEmpty() || recorded == null) {
+				flyway.migrate(); // no build info or fresh database
+				return;
+			}
+			final int c = SchemaVersion.compare(recorded, version);
+			if (c > 0) {
+				throw new IllegalStateException(
+						"Database schema " + recorded + " is newer than this build's " + version);
+			} else if (c == 0) {
+				LOGGER.info("Schema version {} is current, skipping flyway", version);
+			} else {
+				flyway.migrate();
+			}
+		};
+	}
+}
@@ -0,0 +1,116 @@
+package org.eu.mmacedo.mysql.log.sink.domain;
+
+import java.util.Arrays;
+
+/**
+ * Struct of arrays holding a batch of parsed log rows, one column per array.
+ * Instances are recycled through {@link org.eu.mmacedo.mysql.log.sink.util.LogBatchPool}
+ * and are not thread safe.
+ */
+public class LogBatch {
+	private final long[] dates; // epoch millis
+	private final int[] ips;
+	private final String[] methods;
+	private final int[] responses;
+	private final String[] agents;
+	private int size;
+	private long[] order; // packed (date, index), allocated on first sort
+	private long orderMask;
+
+	public LogBatch(final int capacity) {
+		dates = new long[capacity];
+		ips = new int[capacity];
+		methods = new String[capacity];
+		responses = new int[capacity];
+		agents = new String[capacity];
+	}
+
+	public void add(final long date, final int ip, final String method, final int response, final String agent) {
+		dates[size] = date;
+		ips[size] = ip;
+		methods[size] = method;
+		responses[size] = response;
+		agents[size] = agent;
+		size++;
+	}
+
+	public long getDate(final int i) {
+		return dates[i];
+	}
+
+	public int getIp(final int i) {
+		return ips[i];
+	}
+
+	public String getMethod(final int i) {
+		return methods[i];
+	}
+
+	public int getResponse(final int i) {
+		return responses[i];
+	}
+
+	public String getAgent(final int i) {
+		return agents[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return dates.length;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean isFull() {
+		return size == dates.length;
+	}
+
+	/**
+	 * Order rows by date without moving them, read back with
+	 * {@link #getSortedIndex(int)}. Date offset and row index are packed in a
+	 * long so the sort stays primitive.
+	 */
+	public void sortByDate() {
+		if (order == null) {
+			order = new long[capacity()];
+		}
+		final int bits = 32 - Integer.numberOfLeadingZeros(capacity());
+		orderMask = (1L << bits) - 1;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < size; i++) {
+			min = Math.min(min, dates[i]);
+			max = Math.max(max, dates[i]);
+		}
+		final long range = max - min;
+		if (range < 0 || range >= 1L << (63 - bits)) {
+			// dates too far apart to pack, keep arrival order
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			order[i] = (dates[i] - min) << bits | i;
+		}
+		Arrays.sort(order, 0, size);
+	}
+
+	public int getSortedIndex(final int i) {
+		return (int) (order[i] & orderMask);
+	}
+
+	/**
+	 * Prepare for reuse, dropping string references
+	 */
+	public void clear() {
+		Arrays.fill(methods, 0, size, null);
+		Arrays.fill(agents, 0, size, null);
+		size = 0;
+	}
+}
@@ -1,17 +1,14 @@
 package org.eu.mmacedo.mysql.log.sink.service;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.eu.mmacedo.mysql.log.sink.domain.LogBatch;
+import org.eu.mmacedo.mysql.log.sink.util.LogBatchPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -19,37 +16,64 @@ public class BatchAggregatorService {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(BatchAggregatorService.class);
 
-	@Value("${batchSize}")
-	private Integer batchSize;
+	@Autowired
+	private LinkedTransferQueue<Optional<LogBatch>> batchqueue;
 
 	@Autowired
-	private LinkedTransferQueue<Optional<List<Map<Integer, CompletableFuture<?>>>>> batchqueue;
+	private LogBatchPool batchPool;
 
-	private static List<Map<Integer, CompletableFuture<?>>> innerBatch = new LinkedList<>();
+	private LogBatch innerBatch;
 
 	private static ReentrantLock lock = new ReentrantLock();
 
-	public void run(Optional<Map<Integer, CompletableFuture<?>>> futureRow) {
+	public void run(final long date, final int ip, final String method, final int response, final String agent) {
 		while (!lock.tryLock()) {
 		}
 		// non blocking aggregation
 		try {
-			futureRow.ifPresent(innerBatch::add);
-			if (!futureRow.isPresent() || innerBatch.size() >= batchSize) {
+			if (innerBatch == null) {
+				innerBatch = batchPool.acquire();
+			}
+			innerBatch.add(date, ip, method, response, agent);
+			if (innerBatch.isFull()) {
 				LOGGER.debug("sending batch with size: " + innerBatch.size());
-				// List<Map<Integer, CompletableFuture<?>>> cloned = new
-				// LinkedList<>(innerBatch);
 				batchqueue.put(Optional.of(innerBatch));
-				// innerBatch.clear(); // prepare for new batch
-				innerBatch = new LinkedList<>();
+				innerBatch = null; // prepare for new batch
 			}
-			if (!futureRow.isPresent()) {
-				batchqueue.put(Optional.empty());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Send pending rows without waiting for a full batch
+	 */
+	public void flush() {
+		while (!lock.tryLock()) {
+		}
+		try {
+			if (innerBatch != null) {
+				LOGGER.debug("sending batch with size: " + innerBatch.size());
+				batchqueue.put(Optional.of(innerBatch));
+				innerBatch = null;
 			}
 		} finally {
 			lock.unlock();
 		}
+	}
 
+	/**
+	 * Flush pending rows and signal EOF to sink
+	 */
+	public void end() {
+		while (!lock.tryLock()) {
+		}
+		try {
+			flush(); // reentrant
+			batchqueue.put(Optional.empty());
+		} finally {
+			lock.unlock();
+		}
 	}
 
 }
@@ -0,0 +1,195 @@
+package org.eu.mmacedo.mysql.log.sink.service;
+
+import static pl.touk.throwing.ThrowingSupplier.unchecked;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.eu.mmacedo.mysql.log.sink.util.ByteUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import pl.touk.throwing.ThrowingFunction;
+
+/**
+ * Resident mode: follows the access log, keeps {@link ThresholdIndex} hot,
+ * serves it through {@link QueryHttpServer} and periodically persists
+ * violations to blocked
+ */
+@Service
+public class DaemonService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DaemonService.class);
+
+	@Value("${index.persistSeconds}")
+	private Integer persistSeconds;
+
+	@Value("${spring.datasource.driverClassName}")
+	private String driverClassName;
+
+	@Autowired
+	private Environment env;
+
+	@Autowired
+	private MetricRegistry metrics;
+
+	@Autowired
+	private ShardRouter router;
+
+	@Resource(name = "theExecutor")
+	private ExecutorService theExecutor;
+
+	@Autowired
+	private ThresholdIndex index;
+
+	@Autowired
+	private QueryHttpServer http;
+
+	@Autowired
+	private QueryThresholdService qry;
+
+	@Autowired
+	private OutboundMysqlSink sink;
+
+	@Autowired
+	private InboundFileSource in;
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(4);
+
+	// IPs already blocked per window, avoids duplicates between runs
+	private final Map<LocalDateTime, Set<Integer>> persisted = new HashMap<>();
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param fromStart
+	 *            read the whole access log, only safe on an emptied database,
+	 *            otherwise following starts at the current end of file
+	 */
+	public void run(final String accesslog, final String duration, final Integer threshold, final boolean fromStart)
+			throws Exception {
+		index.enable();
+		load();
+		http.start();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		scheduler.scheduleWithFixedDelay(() -> persist(duration, threshold), persistSeconds, persistSeconds,
+				TimeUnit.SECONDS);
+		CompletableFuture.supplyAsync(unchecked(() -> {
+			return sink.follow();
+		}), theExecutor);
+		in.follow(accesslog, fromStart);
+	}
+
+	/**
+	 * Count the rows already stored within the retention horizon, so windows
+	 * that began before a restart are complete
+	 */
+	public void load() {
+		final Timer.Context t = metrics.timer("Index load").time();
+		final String latestSql = env.getProperty("sql.latest");
+		final Timestamp newest = router.getShards().stream()
+				.map(s -> s.queryForObject(latestSql, Timestamp.class)).filter(Objects::nonNull)
+				.max(Timestamp::compareTo).orElse(null);
+		if (newest == null) {
+			LOGGER.info("Index starts empty");
+			t.stop();
+			return;
+		}
+		final Timestamp from = new Timestamp(index.startAt(newest.getTime()));
+		final List<JdbcTemplate> shards = router.getShards();
+		if (router.isSharded()) {
+			shards.stream().map(s -> CompletableFuture.runAsync(() -> load(s, from), router.getWriters()))
+					.collect(Collectors.toList()).forEach(CompletableFuture::join);
+		} else {
+			load(shards.get(0), from);
+		}
+		LOGGER.info("Index loaded from {} to {} in {}ms", from, newest, t.stop() / 1_000_000);
+	}
+
+	private void load(final JdbcTemplate shard, final Timestamp from) {
+		final JdbcTemplate loader = new JdbcTemplate(shard.getDataSource());
+		if (driverClassName.contains("mysql")) {
+			loader.setFetchSize(Integer.MIN_VALUE); // stream rows, the horizon may not fit in memory as a result set
+		}
+		loader.query(env.getProperty("sql.index"), (RowCallbackHandler) rs -> {
+			index.load(rs.getTimestamp(1).getTime(), rs.getInt(2));
+		}, from);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+	}
+
+	private static LocalDateTime getWindow(final LocalDateTime date, final String duration) {
+		return date.truncatedTo("hourly".equals(duration) ? ChronoUnit.HOURS : ChronoUnit.DAYS);
+	}
+
+	/**
+	 * Block violators of the current and previous window, the latter catches
+	 * rows arriving late
+	 */
+	private void persist(final String duration, final Integer threshold) {
+		try {
+			final LocalDateTime latest = index.getLatest();
+			if (latest == null) {
+				return;
+			}
+			final LocalDateTime current = getWindow(latest, duration);
+			final LocalDateTime previous = "hourly".equals(duration) ? current.minusHours(1) : current.minusDays(1);
+			for (final LocalDateTime startDate : new LocalDateTime[] { previous, current }) {
+				final LocalDateTime endDate = QueryThresholdService.getEndDate(startDate, duration);
+				final Set<Integer> done = persisted.computeIfAbsent(startDate, k -> new HashSet<>());
+				final Set<Integer> violators = new HashSet<>();
+				if (index.covers(startDate)) {
+					violators.addAll(index.threshold(startDate, endDate, threshold).keySet());
+				} else {
+					// window older than the index, ask the database
+					qry.threshold(startDate, endDate, threshold).stream()
+							.map(ThrowingFunction.unchecked(ByteUtils::getIntFromIp)).forEach(violators::add);
+				}
+				violators.removeAll(done);
+				if (!violators.isEmpty()) {
+					final Object[][] blocked = violators.stream()
+							.map(ip -> new Object[] { ByteUtils.getIPfromInteger(ip, buffer) })
+							.toArray(Object[][]::new);
+					LOGGER.info("Blocking {} IPs between {} and {}", blocked.length, startDate, endDate);
+					qry.block(blocked, startDate, endDate, threshold);
+					done.addAll(violators);
+				}
+			}
+			persisted.keySet().removeIf(k -> k.isBefore(previous));
+		} catch (final Exception e) {
+			// keep the schedule alive
+			LOGGER.error(e.getMessage());
+		}
+	}
+}
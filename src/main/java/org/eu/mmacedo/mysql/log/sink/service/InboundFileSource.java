@@ -1,28 +1,30 @@
 package org.eu.mmacedo.mysql.log.sink.service;
 
-import static pl.touk.throwing.ThrowingSupplier.unchecked;
-
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.AbstractMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 import javax.annotation.Resource;
 
 import org.eu.mmacedo.mysql.log.sink.util.ByteUtils;
+import org.eu.mmacedo.mysql.log.sink.util.StringInterner;
+import org.eu.mmacedo.mysql.log.sink.util.TimestampParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -30,9 +32,51 @@ public class InboundFileSource {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(InboundFileSource.class);
 
-	private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+	private final ThreadLocal<TimestampParser> dates = ThreadLocal.withInitial(TimestampParser::new);
+
+	private final StringInterner interner = new StringInterner(4096);
+
+	private static final int CHUNK = 1024; // lines per parse task
+
+	private static final int CHUNK_BYTES = 1 << 17; // longest line parsed
+
+	private static final int READ_BUFFER = 1 << 20;
+
+	private final int maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+	private final Semaphore inFlight = new Semaphore(maxInFlight);
+
+	/**
+	 * Lines copied out of the read buffer, recycled once parsed
+	 */
+	private static final class Chunk {
+		final byte[] bytes = new byte[CHUNK_BYTES];
+
+		final int[] ends = new int[CHUNK];
+
+		int lines;
+
+		int length;
 
-	private final Pattern pattern = Pattern.compile("\\|");
+		boolean fits(final int line) {
+			return lines < CHUNK && length + line <= CHUNK_BYTES;
+		}
+
+		void add(final byte[] b, final int from, final int line) {
+			System.arraycopy(b, from, bytes, length, line);
+			length += line;
+			ends[lines++] = length;
+		}
+	}
+
+	// one being filled by the reader and one per task in flight
+	private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(maxInFlight + 1);
+
+	private Chunk chunk; // reader thread only
+
+	private int created; // reader thread only
+
+	private boolean skipping; // reader thread only
 
 	@Resource(name = "theExecutor")
 	private ExecutorService theExecutor;
@@ -40,58 +84,257 @@ public class InboundFileSource {
 	@Autowired
 	private CountDownLatch countDownLatch;
 
+	@Value("${follow.delayMillis}")
+	private Long followDelay;
+
 	@Autowired
 	BatchAggregatorService aggregator;
 
-	private CompletableFuture<LocalDateTime> getDate(final String input) {
-		return CompletableFuture.supplyAsync(() -> {
-			return LocalDateTime.parse(input, formatter);
-		}, theExecutor);
+	private static int indexOf(final byte[] b, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			if (b[i] == '|') {
+				return i;
+			}
+		}
+		return -1;
 	}
 
-	public CompletableFuture<Integer> getIpV4(final String input) {
-		return CompletableFuture.supplyAsync(unchecked(() -> {
-			return ByteUtils.getIntFromIp(input);
-		}), theExecutor);
+	private static int parseInt(final byte[] b, final int from, final int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			final int d = b[i] - '0';
+			if (d < 0 || d > 9 || i - from > 8) {
+				value = -1;
+				break;
+			}
+			value = value * 10 + d;
+		}
+		if (value < 0 || from == to) {
+			throw new NumberFormatException("Invalid response: " + new String(b, from, to - from, StandardCharsets.UTF_8));
+		}
+		return value;
 	}
 
-	private CompletableFuture<Integer> getResponse(final String input) {
-		return CompletableFuture.supplyAsync(() -> {
-			return Integer.parseInt(input);
-		}, theExecutor);
+	/**
+	 * date|ip|method|response|agent parsed in place, only a new method or
+	 * agent value allocates
+	 */
+	private void parseRow(final byte[] b, final int start, final int end) {
+		// field separators
+		final int p1 = indexOf(b, start, end);
+		final int p2 = p1 < 0 ? -1 : indexOf(b, p1 + 1, end);
+		final int p3 = p2 < 0 ? -1 : indexOf(b, p2 + 1, end);
+		final int p4 = p3 < 0 ? -1 : indexOf(b, p3 + 1, end);
+		if (p4 < 0) {
+			LOGGER.error("Malformed row: " + new String(b, start, end - start, StandardCharsets.UTF_8));
+			return;
+		}
+		final int p5 = indexOf(b, p4 + 1, end);
+		try {
+			final long date = dates.get().parse(b, start, p1);
+			final int ip = ByteUtils.parseIPv4(b, p1 + 1, p2);
+			final int response = parseInt(b, p3 + 1, p4);
+			aggregator.run(date, ip, interner.intern(b, p2 + 1, p3), response,
+					interner.intern(b, p4 + 1, p5 < 0 ? end : p5));
+		} catch (final IllegalArgumentException e) {
+			// skip malformed row
+			LOGGER.error(e.getMessage());
+		}
 	}
 
-	private Optional<Map<Integer, CompletableFuture<?>>> getRowAsync(final String input) {
-		final AtomicInteger index = new AtomicInteger();
-		return Optional.of(pattern.splitAsStream(input).map(f -> {
-			switch (index.incrementAndGet()) {
-			case 1: // Date
-				return new AbstractMap.SimpleEntry<>(1, getDate(f));
-			case 2: // IPv4
-				return new AbstractMap.SimpleEntry<>(2, getIpV4(f));
-			case 3: // Method
-				return new AbstractMap.SimpleEntry<>(3, CompletableFuture.completedFuture(f));
-			case 4: // Response
-				return new AbstractMap.SimpleEntry<>(4, getResponse(f));
-			case 5: // Agent
-				return new AbstractMap.SimpleEntry<>(5, CompletableFuture.completedFuture(f));
-			default: // Undefined
-				return new AbstractMap.SimpleEntry<>(index.get(), CompletableFuture.completedFuture(null));
-			}
-		}).collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue(), (a, b) -> b, LinkedHashMap::new)));
-		// preserve order with LinkedHashMap
+	/**
+	 * Parse the current chunk on the executor, blocks while too many chunks
+	 * are in flight
+	 */
+	private void submit() throws InterruptedException {
+		if (chunk == null || chunk.lines == 0) {
+			return;
+		}
+		final Chunk parsing = chunk;
+		chunk = null;
+		inFlight.acquire();
+		try {
+			theExecutor.execute(() -> {
+				try {
+					int start = 0;
+					for (int i = 0; i < parsing.lines; i++) {
+						parseRow(parsing.bytes, start, parsing.ends[i]);
+						start = parsing.ends[i];
+					}
+				} finally {
+					parsing.lines = 0;
+					parsing.length = 0;
+					chunks.add(parsing);
+					inFlight.release();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * A parsed chunk, or a new one until the pool is complete
+	 */
+	private Chunk nextChunk() throws InterruptedException {
+		final Chunk free = chunks.poll();
+		if (free != null) {
+			return free;
+		}
+		if (created <= maxInFlight) {
+			created++;
+			return new Chunk();
+		}
+		return chunks.take();
+	}
+
+	/**
+	 * Queue one line for parsing
+	 */
+	private void emit(final byte[] b, final int from, final int length) throws InterruptedException {
+		if (length > CHUNK_BYTES) {
+			LOGGER.error("Line longer than {} bytes discarded", CHUNK_BYTES);
+			return;
+		}
+		if (chunk != null && !chunk.fits(length)) {
+			submit();
+		}
+		if (chunk == null) {
+			chunk = nextChunk();
+		}
+		chunk.add(b, from, length);
+	}
+
+	/**
+	 * Wait until every submitted chunk has been parsed
+	 */
+	private void awaitParsed() throws InterruptedException {
+		inFlight.acquire(maxInFlight);
+		inFlight.release(maxInFlight);
 	}
 
 	public void run(final String accesslog) throws Exception {
 		LOGGER.info("Reading " + accesslog);
-		Files.lines(Paths.get(accesslog)).map(this::getRowAsync).forEach(r -> {
-			CompletableFuture.runAsync(() -> {
-				aggregator.run(r);
-			}, theExecutor);
-		});
-		CompletableFuture.runAsync(() -> {
-			aggregator.run(Optional.empty()); // EOF
-		}, theExecutor);
+		final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+		skipping = false;
+		try (FileChannel channel = FileChannel.open(Paths.get(accesslog), StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				emitLines(buffer);
+			}
+		}
+		// last line without newline
+		final int length = lineLength(buffer.array(), 0, buffer.position());
+		if (!skipping && length > 0) {
+			emit(buffer.array(), 0, length);
+			submit();
+		}
+		awaitParsed(); // every row aggregated before EOF
+		aggregator.end(); // EOF
 		countDownLatch.await(); // wait sinking end
 	}
+
+	/**
+	 * @return length of the line from start to end, without a trailing CR
+	 */
+	private static int lineLength(final byte[] bytes, final int start, final int end) {
+		return end > start && bytes[end - 1] == '\r' ? end - start - 1 : end - start;
+	}
+
+	/**
+	 * Hand newline terminated lines in buffer to the parsers and keep the
+	 * incomplete tail for the next read
+	 */
+	private void emitLines(final ByteBuffer buffer) throws InterruptedException {
+		final byte[] bytes = buffer.array();
+		final int end = buffer.position();
+		int start = 0;
+		for (int i = 0; i < end; i++) {
+			if (bytes[i] == '\n' && skipping) {
+				skipping = false; // rest of an overlong line
+				start = i + 1;
+			} else if (bytes[i] == '\n') {
+				final int length = lineLength(bytes, start, i);
+				if (length > 0) {
+					emit(bytes, start, length);
+				}
+				start = i + 1;
+			}
+		}
+		submit();
+		if (skipping || (start == 0 && end == buffer.capacity())) {
+			if (!skipping) {
+				LOGGER.error("Line longer than {} bytes discarded", buffer.capacity());
+			}
+			skipping = true;
+			buffer.clear();
+			return;
+		}
+		buffer.flip();
+		buffer.position(start);
+		buffer.compact();
+	}
+
+	/**
+	 * @return true when path now names another file or was truncated below
+	 *         what was already consumed
+	 */
+	private static boolean isRotated(final Path path, final Object fileKey, final long consumed) throws IOException {
+		if (!Files.exists(path)) {
+			return false; // keep the old file until a new one shows up
+		}
+		final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		return (fileKey != null && !fileKey.equals(attributes.fileKey())) || attributes.size() < consumed;
+	}
+
+	/**
+	 * @return true when position is the start of the file or follows a
+	 *         newline
+	 */
+	private static boolean isLineStart(final FileChannel channel, final long position) throws IOException {
+		if (position == 0) {
+			return true;
+		}
+		final ByteBuffer previous = ByteBuffer.allocate(1);
+		return channel.read(previous, position - 1) == 1 && previous.get(0) == '\n';
+	}
+
+	/**
+	 * Tail the access log forever. Starts at the current end of file unless
+	 * fromStart, skipping a partly written last line, and starts over from
+	 * the beginning when the file is rotated or truncated.
+	 */
+	public void follow(final String accesslog, final boolean fromStart) throws Exception {
+		final Path path = Paths.get(accesslog);
+		final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+		long position = fromStart ? 0 : Files.size(path);
+		while (!Thread.currentThread().isInterrupted()) {
+			LOGGER.info("Following {} from byte {}", accesslog, position);
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				final Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+				// started inside a line still being written, drop it up to its newline
+				skipping = !isLineStart(channel, position);
+				while (true) {
+					final int read = channel.read(buffer, position);
+					if (read > 0) {
+						position += read;
+						emitLines(buffer);
+						continue;
+					}
+					// caught up, push what we have to the sink
+					awaitParsed();
+					aggregator.flush();
+					Thread.sleep(followDelay);
+					if (isRotated(path, fileKey, position - buffer.position())) {
+						if (buffer.position() > 0) {
+							LOGGER.warn("Incomplete last line of rotated log discarded");
+						}
+						buffer.clear();
+						position = 0;
+						break;
+					}
+				}
+			}
+		}
+	}
 }
@@ -1,28 +1,35 @@
 package org.eu.mmacedo.mysql.log.sink.service;
 
-import static pl.touk.throwing.ThrowingFunction.unchecked;
-
-import java.sql.Types;
-import java.util.LinkedList;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
+import org.eu.mmacedo.mysql.log.sink.domain.LogBatch;
 import org.eu.mmacedo.mysql.log.sink.util.ByteUtils;
+import org.eu.mmacedo.mysql.log.sink.util.LogBatchPool;
+import org.eu.mmacedo.mysql.log.sink.util.MultiRowInsertEncoder;
+import org.eu.mmacedo.mysql.log.sink.util.StartupClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -36,11 +43,10 @@ public class OutboundMysqlSink {
 
 	private static UUID startId = UUID.randomUUID();
 
-	private static int[] argTypes = new int[] { Types.VARBINARY, Types.TIMESTAMP, Types.INTEGER, Types.VARCHAR,
-			Types.INTEGER, Types.VARCHAR };
-
 	private static AtomicLong sequence = new AtomicLong();
 
+	private static final String MULTIROW = "multirow";
+
 	@Resource(name = "theExecutor")
 	private ExecutorService theExecutor;
 
@@ -48,7 +54,10 @@ public class OutboundMysqlSink {
 	private Environment env;
 
 	@Autowired
-	private LinkedTransferQueue<Optional<List<Map<Integer, CompletableFuture<?>>>>> batchqueue;
+	private LinkedTransferQueue<Optional<LogBatch>> batchqueue;
+
+	@Autowired
+	private LogBatchPool batchPool;
 
 	@Autowired
 	private MetricRegistry metrics;
@@ -57,54 +66,231 @@ public class OutboundMysqlSink {
 	private CountDownLatch countDownLatch;
 
 	@Autowired
-	private JdbcTemplate jdbcTemplate;
+	private ShardRouter router;
+
+	@Autowired
+	private ThresholdIndex index;
+
+	@Value("${sink.mode}")
+	private String mode;
+
+	@Value("${sink.maxStatementBytes}")
+	private Integer maxStatementBytes;
+
+	// one per shard writer thread
+	private final ThreadLocal<MultiRowInsertEncoder> encoders = ThreadLocal
+			.withInitial(() -> new MultiRowInsertEncoder(env.getProperty("sql.insert.multirow"), maxStatementBytes));
+
+	/**
+	 * Multirow statements are escaped and sized for a UTF-8 connection with
+	 * backslash escapes, refuse to start on anything else
+	 */
+	@PostConstruct
+	public void checkMultiRow() {
+		if (!MULTIROW.equals(mode)) {
+			return;
+		}
+		for (final JdbcTemplate shard : router.getShards()) {
+			final String charset = shard.queryForObject("SELECT @@character_set_client", String.class);
+			if (!"utf8".equalsIgnoreCase(charset) && !"utf8mb4".equalsIgnoreCase(charset)) {
+				throw new IllegalStateException(
+						"sink.mode=multirow needs a utf8 connection, add characterEncoding=UTF-8 to the url, client charset is "
+								+ charset);
+			}
+			final String sqlMode = shard.queryForObject("SELECT @@SESSION.sql_mode", String.class);
+			if (sqlMode != null && sqlMode.toUpperCase().contains("NO_BACKSLASH_ESCAPES")) {
+				throw new IllegalStateException("sink.mode=multirow can not run with sql_mode NO_BACKSLASH_ESCAPES");
+			}
+		}
+	}
+
+	/**
+	 * Bind parameters straight from the batch columns
+	 */
+	private BatchPreparedStatementSetter getSetter(final LogBatch batch) {
+		// client side prepared statements copy values as they are set
+		final boolean reuse = !router.isServerPrepared();
+		final byte[] id = new byte[16];
+		final Timestamp date = new Timestamp(0);
+		return new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+				if (reuse) {
+					ps.setBytes(1, ByteUtils.generatePK(startId, sequence, id));
+					date.setTime(batch.getDate(i));
+					ps.setTimestamp(2, date);
+				} else {
+					ps.setBytes(1, ByteUtils.generatePK(startId, sequence));
+					ps.setTimestamp(2, new Timestamp(batch.getDate(i)));
+				}
+				ps.setInt(3, batch.getIp(i));
+				ps.setString(4, batch.getMethod(i));
+				ps.setInt(5, batch.getResponse(i));
+				ps.setString(6, batch.getAgent(i));
+			}
 
-	private Optional<Object[]> getLogArray(final Map<Integer, CompletableFuture<?>> row) {
-		final CompletableFuture<?>[] waitArray = new CompletableFuture<?>[row.size()];
-		row.values().toArray(waitArray);
+			@Override
+			public int getBatchSize() {
+				return batch.size();
+			}
+		};
+	}
+
+	private void execute(final JdbcTemplate template, final MultiRowInsertEncoder encoder) {
+		final String sql = encoder.getSql();
+		template.execute((StatementCallback<Integer>) st -> {
+			st.setEscapeProcessing(false); // already escaped, skip the driver's JDBC escape scan
+			return st.executeUpdate(sql);
+		});
+		encoder.reset();
+	}
+
+	/**
+	 * Rows sorted by date, so date index and sequential primary key both
+	 * append, sent as multi-row inserts split at maxStatementBytes
+	 */
+	private void writeMultiRow(final JdbcTemplate template, final LogBatch b) {
+		final MultiRowInsertEncoder encoder = encoders.get();
+		final long msb = startId.getMostSignificantBits();
+		final long lsb = startId.getLeastSignificantBits();
+		encoder.reset();
+		b.sortByDate();
+		for (int i = 0; i < b.size(); i++) {
+			final int j = b.getSortedIndex(i);
+			final long id = lsb + sequence.incrementAndGet(); // same key as ByteUtils.generatePK
+			if (!encoder.append(msb, id, b.getDate(j), b.getIp(j), b.getMethod(j), b.getResponse(j),
+					b.getAgent(j))) {
+				execute(template, encoder); // statement full
+				encoder.append(msb, id, b.getDate(j), b.getIp(j), b.getMethod(j), b.getResponse(j), b.getAgent(j));
+			}
+		}
+		if (encoder.rows() > 0) {
+			execute(template, encoder);
+		}
+	}
+
+	/**
+	 * @return false when the insert failed and was logged
+	 */
+	private boolean write(final JdbcTemplate template, final LogBatch b) {
 		try {
-			CompletableFuture.allOf(waitArray).get(); // gather all futures in row
-			final LinkedList<Object> c = row.entrySet().stream().map(unchecked(s -> s.getValue().get()))
-					// get value from future
-					.collect(Collectors.toCollection(LinkedList::new));
-			final byte[] id = ByteUtils.generatePK(startId, sequence);
-			// LOGGER.trace(ByteUtils.bytesToHex(id));
-			c.addFirst(id);
-			return Optional.of(c.toArray());
-		} catch (final Throwable e) {
+			final Timer.Context bulk = metrics.timer("Batch insert").time();
+			if (MULTIROW.equals(mode)) {
+				writeMultiRow(template, b);
+			} else {
+				final String sql = env.getProperty("sql.insert");
+				template.batchUpdate(sql, getSetter(b)); // batch insert
+			}
+			bulk.stop();
+			StartupClock.firstRow(metrics);
+			return true;
+		} catch (final Exception e) {
 			LOGGER.error(e.getMessage());
-			// handle exception generating empty
-			return Optional.empty();
+			return false;
 		}
 	}
 
-	@Transactional
-	public Void run() throws InterruptedException {
+	private void index(final LogBatch b) {
+		if (index.isEnabled()) {
+			index.add(b);
+		}
+	}
+
+	/**
+	 * Writer loop of one shard, independent of the others
+	 */
+	private void writeShard(final JdbcTemplate shard, final BlockingQueue<Optional<LogBatch>> queue,
+			final CountDownLatch done) {
+		try {
+			Optional<LogBatch> part;
+			while ((part = queue.take()).isPresent()) {
+				final LogBatch p = part.get();
+				if (write(shard, p)) {
+					index(p); // only rows that made it to the database
+				}
+				batchPool.release(p);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			done.countDown();
+		}
+	}
+
+	private List<BlockingQueue<Optional<LogBatch>>> startShardWriters(final CountDownLatch done) {
+		final List<JdbcTemplate> shards = router.getShards();
+		final List<BlockingQueue<Optional<LogBatch>>> queues = new ArrayList<>(shards.size());
+		for (final JdbcTemplate shard : shards) {
+			final BlockingQueue<Optional<LogBatch>> queue = new ArrayBlockingQueue<>(ShardRouter.QUEUE_DEPTH);
+			queues.add(queue);
+			router.getWriters().execute(() -> writeShard(shard, queue, done));
+		}
+		return queues;
+	}
+
+	/**
+	 * Split batch by IP into the shard writer queues
+	 */
+	private void split(final LogBatch b, final List<BlockingQueue<Optional<LogBatch>>> queues)
+			throws InterruptedException {
+		final LogBatch[] parts = new LogBatch[queues.size()];
+		for (int s = 0; s < parts.length; s++) {
+			parts[s] = batchPool.acquire();
+		}
+		for (int i = 0; i < b.size(); i++) {
+			parts[router.shardOf(b.getIp(i))].add(b.getDate(i), b.getIp(i), b.getMethod(i), b.getResponse(i),
+					b.getAgent(i));
+		}
+		for (int s = 0; s < parts.length; s++) {
+			if (parts[s].isEmpty()) {
+				batchPool.release(parts[s]);
+			} else {
+				queues.get(s).put(Optional.of(parts[s])); // blocks while that shard is behind
+			}
+		}
+	}
+
+	private void drain() throws InterruptedException {
+		final CountDownLatch shardsDone = new CountDownLatch(router.getShards().size());
+		final List<BlockingQueue<Optional<LogBatch>>> queues = router.isSharded() ? startShardWriters(shardsDone)
+				: null;
 		boolean running = true;
-		final Timer timer = metrics.timer("Batch insert");
 		while (running || !batchqueue.isEmpty()) {
-			final Optional<List<Map<Integer, CompletableFuture<?>>>> batch = batchqueue.take();
-			batch.ifPresent(r -> {
-				// filter empties generated from handling exceptions
-				final List<Object[]> b = r.stream().map(this::getLogArray).filter(Optional::isPresent)
-						.map(Optional::get).collect(Collectors.toCollection(LinkedList::new));
-				if (!b.isEmpty()) {
-					try {
-						final Timer.Context bulk = timer.time();
-						final String sql = env.getProperty("sql.insert");
-						jdbcTemplate.batchUpdate(sql, b, argTypes); // batch insert
-						bulk.stop();
-					} catch (final Exception e) {
-						LOGGER.error(e.getMessage());
-					}
+			final Optional<LogBatch> batch = batchqueue.take();
+			if (batch.isPresent()) {
+				final LogBatch b = batch.get();
+				if (queues != null) {
+					split(b, queues);
+				} else if (!b.isEmpty() && write(router.getShards().get(0), b)) {
+					index(b);
 				}
-			});
-			if (!batch.isPresent()) {
+				batchPool.release(b); // recycle arrays
+			} else {
 				running = false;
 			}
 		}
+		if (queues != null) {
+			for (final BlockingQueue<Optional<LogBatch>> queue : queues) {
+				queue.put(Optional.empty()); // EOF per shard
+			}
+			shardsDone.await();
+		}
+	}
+
+	@Transactional
+	public Void run() throws InterruptedException {
+		drain();
 		LOGGER.info("Sink has ended");
 		countDownLatch.countDown(); // notify end of sink
 		return null;
 	}
+
+	/**
+	 * Daemon mode, every batch commits on its own
+	 */
+	public Void follow() throws InterruptedException {
+		drain();
+		LOGGER.info("Sink has ended");
+		return null;
+	}
 }
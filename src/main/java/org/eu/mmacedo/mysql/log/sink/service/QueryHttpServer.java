@@ -0,0 +1,188 @@
+package org.eu.mmacedo.mysql.log.sink.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.eu.mmacedo.mysql.log.sink.util.ByteUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local plain text query API served from {@link ThresholdIndex}
+ *
+ * <pre>
+ * GET /threshold?start=2017-01-01.15:00:00&amp;duration=hourly&amp;limit=200
+ * GET /requests?ip=192.168.1.1&amp;start=2017-01-01.15:00:00&amp;duration=daily
+ * </pre>
+ */
+@Service
+public class QueryHttpServer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(QueryHttpServer.class);
+
+	@Value("${http.port}")
+	private Integer port;
+
+	@Autowired
+	private ThresholdIndex index;
+
+	@Autowired
+	private MetricRegistry metrics;
+
+	private HttpServer server;
+
+	private ExecutorService httpExecutor;
+
+	private static class BadRequestException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BadRequestException(final String message) {
+			super(message);
+		}
+	}
+
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/threshold", e -> handle(e, this::threshold));
+		server.createContext("/requests", e -> handle(e, this::requests));
+		httpExecutor = Executors.newFixedThreadPool(2);
+		server.setExecutor(httpExecutor);
+		server.start();
+		LOGGER.info("Query API listening on http://localhost:{}", port);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			httpExecutor.shutdown();
+		}
+	}
+
+	private interface Handler {
+		String apply(Map<String, String> params);
+	}
+
+	private void handle(final HttpExchange exchange, final Handler handler) throws IOException {
+		final Timer.Context t = metrics.timer("Query api").time();
+		int status = 200;
+		String body;
+		try {
+			body = handler.apply(getParams(exchange.getRequestURI().getRawQuery()));
+		} catch (final BadRequestException e) {
+			status = 400;
+			body = e.getMessage() + "\n";
+		} catch (final Exception e) {
+			LOGGER.error(e.getMessage());
+			status = 500;
+			body = "Internal error\n";
+		}
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+		t.stop();
+	}
+
+	private static Map<String, String> getParams(final String query) throws UnsupportedEncodingException {
+		final Map<String, String> params = new HashMap<>();
+		if (query != null) {
+			for (final String pair : query.split("&")) {
+				final int i = pair.indexOf('=');
+				if (i > 0) {
+					params.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"),
+							URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+				}
+			}
+		}
+		return params;
+	}
+
+	private static String required(final Map<String, String> params, final String name) {
+		final String value = params.get(name);
+		if (value == null || value.isEmpty()) {
+			throw new BadRequestException("Missing parameter: " + name);
+		}
+		return value;
+	}
+
+	private static LocalDateTime getStartDate(final Map<String, String> params) {
+		final String start = required(params, "start");
+		try {
+			return LocalDateTime.parse(start, QueryThresholdService.formatter);
+		} catch (final DateTimeParseException e) {
+			throw new BadRequestException("Invalid start: " + start);
+		}
+	}
+
+	private static LocalDateTime getEndDate(final Map<String, String> params, final LocalDateTime startDate) {
+		final String duration = required(params, "duration").trim().toLowerCase();
+		if (!QueryThresholdService.isDuration(duration)) {
+			throw new BadRequestException("Duration should be either hourly or daily: " + duration);
+		}
+		return QueryThresholdService.getEndDate(startDate, duration);
+	}
+
+	private void covered(final LocalDateTime startDate) {
+		if (!index.covers(startDate)) {
+			throw new BadRequestException("Index starts at " + QueryThresholdService.formatter.format(index.getHorizon())
+					+ ", query older windows with --query");
+		}
+	}
+
+	private String threshold(final Map<String, String> params) {
+		final LocalDateTime startDate = getStartDate(params);
+		final LocalDateTime endDate = getEndDate(params, startDate);
+		covered(startDate);
+		final String limit = required(params, "limit");
+		final int threshold;
+		try {
+			threshold = Integer.parseInt(limit);
+		} catch (final NumberFormatException e) {
+			throw new BadRequestException("Limit should be integer: " + limit);
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(4);
+		final StringBuilder sb = new StringBuilder();
+		index.threshold(startDate, endDate, threshold).forEach((ip, c) -> sb
+				.append(ByteUtils.getIPfromInteger(ip, buffer)).append('\t').append(c).append('\n'));
+		return sb.toString();
+	}
+
+	private String requests(final Map<String, String> params) {
+		final String ip = required(params, "ip");
+		final int ipv4;
+		try {
+			ipv4 = ByteUtils.parseIPv4(ip); // no DNS lookup on the http thread
+		} catch (final IllegalArgumentException e) {
+			throw new BadRequestException("Invalid ip, expected an IPv4 dotted quad: " + ip);
+		}
+		final LocalDateTime startDate = getStartDate(params);
+		final LocalDateTime endDate = getEndDate(params, startDate);
+		covered(startDate);
+		return index.count(ipv4, startDate, endDate) + "\n";
+	}
+}
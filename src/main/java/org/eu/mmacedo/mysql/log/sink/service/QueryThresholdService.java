@@ -6,14 +6,17 @@ import java.sql.Types;
 import java.text.MessageFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.eu.mmacedo.mysql.log.sink.util.ByteUtils;
+import org.eu.mmacedo.mysql.log.sink.util.StartupClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,6 +39,8 @@ public class QueryThresholdService {
 
 	public static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd.HH:mm:ss");
 
+	private static final String[] DURATIONS = { "hourly", "daily" };
+
 	private static final String warning = "Violated threshold {0,number,integer} {1} between {2} and {3}.";
 
 	private static int[] argTypes = new int[] { Types.VARBINARY, Types.TIMESTAMP, Types.INTEGER, Types.LONGVARCHAR };
@@ -46,8 +51,6 @@ public class QueryThresholdService {
 
 	private static AtomicLong sequence = new AtomicLong();
 
-	private final ByteBuffer buffer = ByteBuffer.allocate(4);
-
 	@Autowired
 	private MetricRegistry metrics;
 
@@ -57,6 +60,21 @@ public class QueryThresholdService {
 	@Autowired
 	private JdbcTemplate jdbcTemplate;
 
+	@Autowired
+	private ShardRouter router;
+
+	public static boolean isDuration(final String duration) {
+		return Arrays.asList(DURATIONS).contains(duration);
+	}
+
+	public static LocalDateTime getEndDate(final LocalDateTime startDate, final String duration) {
+		if ("hourly".equals(duration)) {
+			return startDate.plusHours(1);
+		} else {
+			return startDate.plusDays(1);
+		}
+	}
+
 	private Object[] getRow(final Integer ip, final LocalDateTime startDate, final LocalDateTime endDate,
 			final Integer threshold, final String duration) {
 		final String comment = MessageFormat.format(warning, threshold, duration, formatter.format(startDate),
@@ -84,29 +102,52 @@ public class QueryThresholdService {
 	public void clear() {
 		LOGGER.info("About to clear logs");
 		final String sql = env.getProperty("sql.clear");
-		jdbcTemplate.execute(sql);
+		router.getShards().forEach(t -> t.execute(sql));
 		LOGGER.info("logs empty");
 	}
 
-	public void run(final LocalDateTime startDate, final LocalDateTime endDate, final Integer threshold)
-			throws UnsupportedEncodingException {
-		final Timer qry_timer = metrics.timer("Query threshold");
-		final Object[] args = new Object[] { startDate, endDate, threshold };
-		final String sql = env.getProperty("sql.threshold");
-		final Timer.Context qry_t = qry_timer.time();
-		final Object[][] result = jdbcTemplate.query(sql, args, (ResultSetExtractor<Object[][]>) rs -> {
+	private List<String> query(final JdbcTemplate template, final String sql, final Object[] args) {
+		return template.query(sql, args, (ResultSetExtractor<List<String>>) rs -> {
 			// ResultSetMetaData meta = rs.getMetaData();
+			final ByteBuffer buffer = ByteBuffer.allocate(4); // per shard thread
 
 			final List<String> l = new LinkedList<>();
 			while (rs.next()) {
 				l.add(ByteUtils.getIPfromInteger(rs.getInt(1), buffer));
 			}
-
-			final Object[][] f = l.stream().map(s -> new Object[] { s }).toArray(Object[][]::new);
-
-			return f;
+			return l;
 		});
+	}
+
+	/**
+	 * IPs at or over threshold, gathered from every shard
+	 */
+	public List<String> threshold(final LocalDateTime startDate, final LocalDateTime endDate,
+			final Integer threshold) {
+		final Timer qry_timer = metrics.timer("Query threshold");
+		final Object[] args = new Object[] { startDate, endDate, threshold };
+		final String sql = env.getProperty("sql.threshold");
+		final Timer.Context qry_t = qry_timer.time();
+		final List<String> ips;
+		if (router.isSharded()) {
+			// scatter gather, an IP never spans shards so results just concatenate
+			final List<CompletableFuture<List<String>>> parts = router.getShards().stream()
+					.map(t -> CompletableFuture.supplyAsync(() -> query(t, sql, args), router.getWriters()))
+					.collect(Collectors.toList());
+			ips = parts.stream().map(CompletableFuture::join).flatMap(List::stream)
+					.collect(Collectors.toCollection(LinkedList::new));
+		} else {
+			ips = query(router.getShards().get(0), sql, args);
+		}
 		qry_t.stop();
+		StartupClock.firstRow(metrics);
+		return ips;
+	}
+
+	public void run(final LocalDateTime startDate, final LocalDateTime endDate, final Integer threshold)
+			throws UnsupportedEncodingException {
+		final Object[][] result = threshold(startDate, endDate, threshold).stream().map(s -> new Object[] { s })
+				.toArray(Object[][]::new);
 		LOGGER.info("Threshold result:");
 		if (result.length > 0) {
 			final TextTable tt = new TextTable(columnNames, result);
@@ -0,0 +1,179 @@
+package org.eu.mmacedo.mysql.log.sink.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Log table shards, one datasource per semicolon separated url in shards.
+ * Rows are routed by IP so every IP lives on a single shard and threshold
+ * results never need merging. Without shards the default datasource is the
+ * only shard. Changing the number of shards routes IPs elsewhere, existing
+ * rows have to be cleared or reloaded. Shards inherit spring.datasource
+ * settings and the url options of spring.datasource.url, their own win.
+ */
+@Service
+public class ShardRouter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShardRouter.class);
+
+	@Value("${shards}")
+	private String urls;
+
+	@Autowired
+	private DataSourceProperties properties;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private final List<DataSource> dataSources = new LinkedList<>();
+
+	private List<JdbcTemplate> shards;
+
+	private ExecutorService writers;
+
+	private boolean serverPrepared;
+
+	@Autowired(required = false)
+	private FlywayMigrationStrategy migrationStrategy;
+
+	// batches queued per shard writer
+	public static final int QUEUE_DEPTH = 2;
+
+	@PostConstruct
+	public void init() {
+		// split before each jdbc: so urls keep their own commas and semicolons
+		final String[] list = Arrays.stream(urls.split(";(?=\\s*jdbc:)")).map(String::trim).filter(u -> !u.isEmpty())
+				.toArray(String[]::new);
+		if (list.length == 0) {
+			serverPrepared = isServerPrepared(properties.getUrl());
+			shards = Collections.singletonList(jdbcTemplate);
+			return;
+		}
+		final List<JdbcTemplate> templates = new LinkedList<>();
+		for (final String url : list) {
+			final String shardUrl = withOptions(url, properties.getUrl());
+			serverPrepared |= isServerPrepared(shardUrl);
+			final DataSource ds = properties.initializeDataSourceBuilder().url(shardUrl).build();
+			dataSources.add(ds);
+			final Flyway flyway = new Flyway();
+			flyway.setDataSource(ds);
+			if (migrationStrategy != null) {
+				migrationStrategy.migrate(flyway); // same schema check as the default datasource
+			} else {
+				flyway.migrate();
+			}
+			templates.add(new JdbcTemplate(ds));
+		}
+		shards = Collections.unmodifiableList(templates);
+		writers = Executors.newFixedThreadPool(2 * shards.size()); // a writer loop and a query per shard
+		LOGGER.info("Sharding log across {} databases", shards.size());
+	}
+
+	private static String getScheme(final String url) {
+		final int i = url.indexOf(':', "jdbc:".length());
+		return i < 0 ? url : url.substring(0, i);
+	}
+
+	private static void putOptions(final Map<String, String> options, final String url) {
+		final int q = url.indexOf('?');
+		if (q < 0) {
+			return;
+		}
+		for (final String option : url.substring(q + 1).split("&")) {
+			final int i = option.indexOf('=');
+			if (!option.isEmpty()) {
+				options.put(i < 0 ? option : option.substring(0, i), option);
+			}
+		}
+	}
+
+	private static boolean isServerPrepared(final String url) {
+		return url != null && url.toLowerCase().contains("useserverprepstmts=true");
+	}
+
+	/**
+	 * Query options of defaults missing from url, when both use the same
+	 * driver, so shards keep rewriteBatchedStatements and friends
+	 */
+	static String withOptions(final String url, final String defaults) {
+		if (defaults == null || !getScheme(url).equals(getScheme(defaults))) {
+			return url;
+		}
+		final Map<String, String> options = new LinkedHashMap<>();
+		putOptions(options, defaults);
+		putOptions(options, url);
+		if (options.isEmpty()) {
+			return url;
+		}
+		final int q = url.indexOf('?');
+		return (q < 0 ? url : url.substring(0, q)) + "?" + String.join("&", options.values());
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		if (writers != null) {
+			writers.shutdown();
+		}
+		for (final DataSource ds : dataSources) {
+			if (ds instanceof Closeable) {
+				((Closeable) ds).close();
+			}
+		}
+	}
+
+	/**
+	 * @return true when some shard binds parameters server side, the driver
+	 *         then keeps references to bound values until the batch executes
+	 */
+	public boolean isServerPrepared() {
+		return serverPrepared;
+	}
+
+	public boolean isSharded() {
+		return shards.size() > 1;
+	}
+
+	public List<JdbcTemplate> getShards() {
+		return shards;
+	}
+
+	public ExecutorService getWriters() {
+		return writers;
+	}
+
+	/**
+	 * Batches the shard writers may hold at once, on top of batchPoolSize
+	 */
+	public int getPooledBatches() {
+		return isSharded() ? shards.size() * (QUEUE_DEPTH + 2) : 0;
+	}
+
+	/**
+	 * Fibonacci hashing, the high bits of the product spread neighbouring IPs
+	 */
+	public int shardOf(final int ip) {
+		return (int) (((ip * 0x9E3779B9) & 0xFFFFFFFFL) * shards.size() >>> 32);
+	}
+}
@@ -0,0 +1,165 @@
+package org.eu.mmacedo.mysql.log.sink.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eu.mmacedo.mysql.log.sink.domain.LogBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * In memory time bucketed per IP request counts, loaded from log on startup
+ * and fed by the sink in daemon mode. Queries are rounded to bucket
+ * boundaries and cover [start, end). Buckets before the horizon are missing
+ * or partial, queries starting there are refused.
+ */
+@Service
+public class ThresholdIndex {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThresholdIndex.class);
+
+	@Value("${index.bucketSeconds}")
+	private Integer bucketSeconds;
+
+	@Value("${index.retentionHours}")
+	private Integer retentionHours;
+
+	private final ConcurrentSkipListMap<Long, ConcurrentHashMap<Integer, AtomicInteger>> buckets = new ConcurrentSkipListMap<>();
+
+	private final AtomicLong latest = new AtomicLong(Long.MIN_VALUE);
+
+	// first complete bucket
+	private final AtomicLong horizon = new AtomicLong(Long.MIN_VALUE);
+
+	private volatile boolean enabled;
+
+	public void enable() {
+		LOGGER.info("Index enabled with {}s buckets and {}h retention", bucketSeconds, retentionHours);
+		enabled = true;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	private long bucketOf(final long millis) {
+		return Math.floorDiv(millis, bucketSeconds * 1000L);
+	}
+
+	private long bucketOf(final LocalDateTime date) {
+		return bucketOf(Timestamp.valueOf(date).getTime());
+	}
+
+	private void increment(final long date, final int ip) {
+		buckets.computeIfAbsent(bucketOf(date), k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(ip, k -> new AtomicInteger()).incrementAndGet();
+	}
+
+	/**
+	 * Safe to call from several shard writers
+	 */
+	public void add(final LogBatch batch) {
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < batch.size(); i++) {
+			final long date = batch.getDate(i);
+			increment(date, batch.getIp(i));
+			max = Math.max(max, date);
+		}
+		latest.accumulateAndGet(max, Math::max);
+		evict();
+	}
+
+	/**
+	 * Start of the retention horizon for a log whose newest row is at
+	 * newest, rows from there on have to be loaded with {@link #load}
+	 *
+	 * @return horizon in epoch millis, aligned to a bucket
+	 */
+	public long startAt(final long newest) {
+		final long first = bucketOf(newest - retentionHours * 3600_000L);
+		horizon.accumulateAndGet(first, Math::max);
+		return first * bucketSeconds * 1000L;
+	}
+
+	/**
+	 * One stored row, safe to call from several shard loaders
+	 */
+	public void load(final long date, final int ip) {
+		increment(date, ip);
+		latest.accumulateAndGet(date, Math::max);
+	}
+
+	/**
+	 * Drop buckets older than retention, relative to newest row seen
+	 */
+	private void evict() {
+		if (latest.get() == Long.MIN_VALUE) {
+			return;
+		}
+		final long first = bucketOf(latest.get() - retentionHours * 3600_000L);
+		horizon.accumulateAndGet(first, Math::max); // before dropping, so no query sees the gap
+		buckets.headMap(first).clear();
+	}
+
+	/**
+	 * @return true when every bucket from startDate on is complete
+	 */
+	public boolean covers(final LocalDateTime startDate) {
+		return bucketOf(startDate) >= horizon.get();
+	}
+
+	/**
+	 * @return start of the first complete bucket, or null when complete
+	 *         since startup on an empty log
+	 */
+	public LocalDateTime getHorizon() {
+		final long h = horizon.get();
+		return h == Long.MIN_VALUE ? null : new Timestamp(h * bucketSeconds * 1000L).toLocalDateTime();
+	}
+
+	private void check(final LocalDateTime startDate) {
+		if (!covers(startDate)) {
+			throw new IllegalArgumentException(
+					"Index starts at " + getHorizon() + ", counts from " + startDate + " would be partial");
+		}
+	}
+
+	/**
+	 * @return date of newest row indexed, or null when empty
+	 */
+	public LocalDateTime getLatest() {
+		final long l = latest.get();
+		return l == Long.MIN_VALUE ? null : new Timestamp(l).toLocalDateTime();
+	}
+
+	public Map<Integer, Integer> threshold(final LocalDateTime startDate, final LocalDateTime endDate,
+			final int limit) {
+		check(startDate);
+		final Map<Integer, Integer> counts = new HashMap<>();
+		buckets.subMap(bucketOf(startDate), bucketOf(endDate)).values()
+				.forEach(b -> b.forEach((ip, c) -> counts.merge(ip, c.get(), Integer::sum)));
+		counts.values().removeIf(c -> c < limit);
+		return counts;
+	}
+
+	public int count(final int ip, final LocalDateTime startDate, final LocalDateTime endDate) {
+		check(startDate);
+		int count = 0;
+		for (final ConcurrentHashMap<Integer, AtomicInteger> b : buckets
+				.subMap(bucketOf(startDate), bucketOf(endDate)).values()) {
+			final AtomicInteger c = b.get(ip);
+			if (c != null) {
+				count += c.get();
+			}
+		}
+		return count;
+	}
+}
@@ -3,6 +3,7 @@ package org.eu.mmacedo.mysql.log.sink.util;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -31,17 +32,76 @@ public class ByteUtils {
 		return Integer.valueOf(intRepresentation);
 	}
 
+	/**
+	 * Dotted quad straight from bytes, no lookup and no allocation
+	 *
+	 * @throws IllegalArgumentException
+	 *             for anything but four decimal octets
+	 */
+	public static int parseIPv4(final byte[] b, final int from, final int to) {
+		int ip = 0;
+		int octet = 0;
+		int digits = 0;
+		int dots = 0;
+		for (int i = from; i < to; i++) {
+			final int c = b[i];
+			if (c == '.' && digits > 0 && dots < 3) {
+				ip = ip << 8 | octet;
+				octet = 0;
+				digits = 0;
+				dots++;
+			} else if (c >= '0' && c <= '9' && digits < 3) {
+				octet = octet * 10 + c - '0';
+				digits++;
+				if (octet > 255) {
+					break;
+				}
+			} else {
+				digits = 0;
+				break;
+			}
+		}
+		if (dots != 3 || digits == 0 || octet > 255) {
+			throw new IllegalArgumentException("Invalid ip: " + new String(b, from, to - from, StandardCharsets.UTF_8));
+		}
+		return ip << 8 | octet;
+	}
+
+	/**
+	 * Dotted quad only, unlike {@link #getIntFromIp} never resolves a host
+	 * name nor truncates an IPv6 address
+	 */
+	public static int parseIPv4(final String input) {
+		final byte[] b = input.getBytes(StandardCharsets.ISO_8859_1); // anything wider becomes '?'
+		return parseIPv4(b, 0, b.length);
+	}
+
 	public static byte[] generatePK(final UUID startId, final AtomicLong sequence) {
+		return generatePK(startId, sequence, new byte[16]);
+	}
+
+	/**
+	 * Fill id with the next key, for callers that reuse one buffer
+	 */
+	public static byte[] generatePK(final UUID startId, final AtomicLong sequence, final byte[] id) {
 		final long msb = startId.getMostSignificantBits();
 		final long lsb = startId.getLeastSignificantBits();
-		final byte[] id = ByteUtils.longToBytes(msb, lsb + sequence.incrementAndGet());
-		return id;
+		return ByteUtils.longToBytes(msb, lsb + sequence.incrementAndGet(), id);
 	}
 
 	public static byte[] longToBytes(final long ms, final long ls) {
-		buffer.putLong(0, ms);
-		buffer.putLong(8, ls);
-		return buffer.array().clone();
+		// own array, pk generation runs on parallel shard writers
+		return longToBytes(ms, ls, new byte[16]);
+	}
+
+	public static byte[] longToBytes(long ms, long ls, final byte[] result) {
+		for (int i = 7; i >= 0; i--) {
+			result[i] = (byte) (ms & 0xFF);
+			result[i + 8] = (byte) (ls & 0xFF);
+			ms >>= 8;
+			ls >>= 8;
+		}
+		return result;
 	}
 
 	public static long getmostsignficant(final byte[] bytes) {
@@ -0,0 +1,31 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.eu.mmacedo.mysql.log.sink.domain.LogBatch;
+
+/**
+ * Bounded pool of {@link LogBatch} so the column arrays are reused between
+ * batches instead of being reallocated
+ */
+public class LogBatchPool {
+
+	private final int batchSize;
+
+	private final ArrayBlockingQueue<LogBatch> free;
+
+	public LogBatchPool(final int batchSize, final int poolSize) {
+		this.batchSize = batchSize;
+		free = new ArrayBlockingQueue<>(poolSize);
+	}
+
+	public LogBatch acquire() {
+		final LogBatch batch = free.poll();
+		return batch != null ? batch : new LogBatch(batchSize);
+	}
+
+	public void release(final LogBatch batch) {
+		batch.clear();
+		free.offer(batch); // dropped when pool is full
+	}
+}
@@ -0,0 +1,181 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Encodes log rows as a single multi-row INSERT ... VALUES (...),(...) into a
+ * reusable buffer, tracking the UTF-8 size so statements stay below
+ * maxBytes. Values are escaped as MySQL does without NO_BACKSLASH_ESCAPES.
+ * Not thread safe, keep one per writer thread.
+ */
+public class MultiRowInsertEncoder {
+
+	private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
+
+	private final String prefix;
+
+	private final int maxBytes;
+
+	private final StringBuilder sql;
+
+	// same zone as Timestamp binding, ISO years whatever the default locale
+	private final Calendar calendar = new GregorianCalendar();
+
+	private int bytes;
+
+	private int rows;
+
+	public MultiRowInsertEncoder(final String prefix, final int maxBytes) {
+		this.prefix = prefix + " ";
+		this.maxBytes = maxBytes;
+		sql = new StringBuilder(maxBytes / 2); // grows on demand, ASCII rows fill it at one byte a char
+		reset();
+	}
+
+	public void reset() {
+		sql.setLength(0);
+		sql.append(prefix);
+		bytes = prefix.length();
+		rows = 0;
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	/**
+	 * @return UTF-8 size of the statement
+	 */
+	public int bytes() {
+		return bytes;
+	}
+
+	public String getSql() {
+		return sql.toString();
+	}
+
+	/**
+	 * @return false when the row would exceed maxBytes, encoder is left as it
+	 *         was. A first row is always accepted.
+	 */
+	public boolean append(final long idMsb, final long idLsb, final long date, final int ip, final String method,
+			final int response, final String agent) {
+		final int markLength = sql.length();
+		final int markBytes = bytes;
+		if (rows > 0) {
+			append(',');
+		}
+		append('(');
+		append('X');
+		append('\'');
+		appendHex(idMsb);
+		appendHex(idLsb);
+		append('\'');
+		append(',');
+		appendDate(date);
+		append(',');
+		appendInt(ip);
+		append(',');
+		appendString(method);
+		append(',');
+		appendInt(response);
+		append(',');
+		appendString(agent);
+		append(')');
+		if (bytes > maxBytes && rows > 0) {
+			sql.setLength(markLength);
+			bytes = markBytes;
+			return false;
+		}
+		rows++;
+		return true;
+	}
+
+	private void append(final char c) {
+		sql.append(c);
+		if (c < 0x80) {
+			bytes += 1;
+		} else if (c < 0x800 || Character.isSurrogate(c)) {
+			bytes += 2; // a surrogate pair encodes to 4
+		} else {
+			bytes += 3;
+		}
+	}
+
+	private void appendHex(final long l) {
+		for (int shift = 60; shift >= 0; shift -= 4) {
+			append(hexArray[(int) (l >>> shift) & 0x0F]);
+		}
+	}
+
+	private void appendInt(final int i) {
+		final int start = sql.length();
+		sql.append(i);
+		bytes += sql.length() - start;
+	}
+
+	private void appendPadded(final int value, final int digits) {
+		int limit = 10;
+		for (int d = 1; d < digits; d++) {
+			if (value < limit) {
+				append('0');
+			}
+			limit *= 10;
+		}
+		appendInt(value);
+	}
+
+	private void appendDate(final long date) {
+		calendar.setTimeInMillis(date);
+		append('\'');
+		appendPadded(calendar.get(Calendar.YEAR), 4);
+		append('-');
+		appendPadded(calendar.get(Calendar.MONTH) + 1, 2);
+		append('-');
+		appendPadded(calendar.get(Calendar.DAY_OF_MONTH), 2);
+		append(' ');
+		appendPadded(calendar.get(Calendar.HOUR_OF_DAY), 2);
+		append(':');
+		appendPadded(calendar.get(Calendar.MINUTE), 2);
+		append(':');
+		appendPadded(calendar.get(Calendar.SECOND), 2);
+		append('.');
+		appendPadded(calendar.get(Calendar.MILLISECOND), 3);
+		append('\'');
+	}
+
+	private void appendString(final String s) {
+		append('\'');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			switch (c) {
+			case 0:
+				append('\\');
+				append('0');
+				break;
+			case '\n':
+				append('\\');
+				append('n');
+				break;
+			case '\r':
+				append('\\');
+				append('r');
+				break;
+			case 0x1a:
+				append('\\');
+				append('Z');
+				break;
+			case '\\':
+			case '\'':
+			case '"':
+				append('\\');
+				append(c);
+				break;
+			default:
+				append(c);
+			}
+		}
+		append('\'');
+	}
+}
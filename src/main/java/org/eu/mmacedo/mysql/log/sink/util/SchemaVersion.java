@@ -0,0 +1,70 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Highest Flyway migration version. Run by the build over db/migration to
+ * write schema-version.properties, so --fast knows the expected schema
+ * without scanning migrations at startup.
+ */
+public class SchemaVersion {
+
+	public static final String RESOURCE = "schema-version.properties";
+
+	public static final String PROPERTY = "schema.version";
+
+	private static final Pattern MIGRATION = Pattern.compile("V(.+?)__.*\\.sql");
+
+	/**
+	 * Compare dotted versions numerically, 1.1.10 is after 1.1.9
+	 */
+	public static int compare(final String a, final String b) {
+		final String[] as = a.split("\\.");
+		final String[] bs = b.split("\\.");
+		for (int i = 0; i < Math.max(as.length, bs.length); i++) {
+			final BigInteger x = i < as.length ? new BigInteger(as[i]) : BigInteger.ZERO;
+			final BigInteger y = i < bs.length ? new BigInteger(bs[i]) : BigInteger.ZERO;
+			final int c = x.compareTo(y);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return highest version among versioned migration file names, or null
+	 */
+	public static String latest(final Stream<String> fileNames) {
+		return fileNames.map(MIGRATION::matcher).filter(Matcher::matches).map(m -> m.group(1).replace('_', '.'))
+				.max(SchemaVersion::compare).orElse(null);
+	}
+
+	/**
+	 * @param args
+	 *            migration directory and properties file to write
+	 */
+	public static void main(final String[] args) throws IOException {
+		final String version;
+		try (Stream<Path> files = Files.list(Paths.get(args[0]))) {
+			version = latest(files.map(p -> p.getFileName().toString()));
+		}
+		if (version == null) {
+			throw new IllegalStateException("No migrations found in " + args[0]);
+		}
+		final Properties properties = new Properties();
+		properties.setProperty(PROPERTY, version);
+		try (OutputStream out = Files.newOutputStream(Paths.get(args[1]))) {
+			properties.store(out, "generated by the build, highest migration version");
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Measures elapsed time since JVM start
+ */
+public class StartupClock {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StartupClock.class);
+
+	private static final AtomicBoolean firstRow = new AtomicBoolean();
+
+	public static long sinceStart() {
+		return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+
+	/**
+	 * Record time to first row once, either first batch sunk or first query
+	 * answered
+	 */
+	public static void firstRow(final MetricRegistry metrics) {
+		if (firstRow.compareAndSet(false, true)) {
+			final long elapsed = sinceStart();
+			LOGGER.info("Time to first row: {} ms", elapsed);
+			metrics.register("Time to first row (ms)", (Gauge<Long>) () -> elapsed);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Canonicalizes low cardinality values like method and agent so every row
+ * shares a single reference. Looked up straight from UTF-8 bytes, a known
+ * value costs no allocation. Stops growing after maxSize distinct values.
+ * Safe for concurrent use.
+ */
+public class StringInterner {
+
+	private static final class Entry {
+		final int hash;
+
+		final byte[] bytes;
+
+		final String value;
+
+		Entry(final int hash, final byte[] bytes) {
+			this.hash = hash;
+			this.bytes = bytes;
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		boolean matches(final int h, final byte[] b, final int from, final int length) {
+			if (hash != h || bytes.length != length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] != b[from + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	// open addressing, at most half full
+	private final AtomicReferenceArray<Entry> table;
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final int maxSize;
+
+	public StringInterner(final int maxSize) {
+		this.maxSize = maxSize;
+		table = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(maxSize, 1)) << 2);
+	}
+
+	public String intern(final byte[] b, final int from, final int to) {
+		final int length = to - from;
+		int h = 0;
+		for (int i = from; i < to; i++) {
+			h = 31 * h + b[i];
+		}
+		final int mask = table.length() - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			Entry e = table.get(slot);
+			if (e == null) {
+				if (size.get() >= maxSize) {
+					return new String(b, from, length, StandardCharsets.UTF_8);
+				}
+				final Entry created = new Entry(h, Arrays.copyOfRange(b, from, to));
+				if (table.compareAndSet(slot, null, created)) {
+					size.incrementAndGet();
+					return created.value;
+				}
+				e = table.get(slot); // lost the race, someone else filled the slot
+			}
+			if (e.matches(h, b, from, length)) {
+				return e.value;
+			}
+		}
+	}
+}
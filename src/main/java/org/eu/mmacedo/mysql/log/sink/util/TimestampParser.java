@@ -0,0 +1,68 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Parses the fixed width yyyy-MM-dd HH:mm:ss.SSS log date straight from
+ * bytes to epoch millis in the default time zone, the same instant as
+ * Timestamp.valueOf(LocalDateTime.parse(...)) without allocating. A day past
+ * the end of its month is clamped like the java.time smart resolver does.
+ * Not thread safe, keep one per parser thread.
+ */
+public class TimestampParser {
+
+	public static final int LENGTH = "yyyy-MM-dd HH:mm:ss.SSS".length();
+
+	// always the ISO calendar, whatever the default locale
+	private final GregorianCalendar calendar = new GregorianCalendar();
+
+	private static boolean isLeap(final int year) {
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	private static int daysIn(final int year, final int month) {
+		return month == 2 ? (isLeap(year) ? 29 : 28) : 30 + ((month + (month >> 3)) & 1);
+	}
+
+	private static IllegalArgumentException invalid(final byte[] b, final int from, final int to) {
+		return new IllegalArgumentException("Invalid date: " + new String(b, from, to - from, StandardCharsets.UTF_8));
+	}
+
+	private static int digits(final byte[] b, final int from, final int count, final int to) {
+		int value = 0;
+		for (int i = from; i < from + count; i++) {
+			final int d = b[i] - '0';
+			if (d < 0 || d > 9) {
+				throw invalid(b, from, to);
+			}
+			value = value * 10 + d;
+		}
+		return value;
+	}
+
+	private static int field(final byte[] b, final int from, final int offset, final int count, final int min,
+			final int max) {
+		final int value = digits(b, from + offset, count, from + LENGTH);
+		if (value < min || value > max) {
+			throw invalid(b, from, from + LENGTH);
+		}
+		return value;
+	}
+
+	public long parse(final byte[] b, final int from, final int to) {
+		if (to - from != LENGTH || b[from + 4] != '-' || b[from + 7] != '-' || b[from + 10] != ' '
+				|| b[from + 13] != ':' || b[from + 16] != ':' || b[from + 19] != '.') {
+			throw invalid(b, from, to);
+		}
+		final int year = field(b, from, 0, 4, 1, 9999);
+		final int month = field(b, from, 5, 2, 1, 12);
+		final int day = field(b, from, 8, 2, 1, 31);
+		calendar.clear();
+		calendar.set(year, month - 1, Math.min(day, daysIn(year, month)), field(b, from, 11, 2, 0, 23),
+				field(b, from, 14, 2, 0, 59), field(b, from, 17, 2, 0, 59));
+		calendar.set(Calendar.MILLISECOND, field(b, from, 20, 3, 0, 999));
+		return calendar.getTimeInMillis();
+	}
+}
@@ -0,0 +1,81 @@
+package org.eu.mmacedo.mysql.log.sink.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eu.mmacedo.mysql.log.sink.domain.LogBatch;
+import org.eu.mmacedo.mysql.log.sink.util.ByteUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Restart of server mode: the index is rebuilt from log before following
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "spring.datasource.url=jdbc:h2:mem:daemon;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.driverClassName=org.h2.Driver", "index.retentionHours=2",
+		"logging.file=target/test.log" })
+public class DaemonServiceTest {
+
+	private static final LocalDateTime START = LocalDateTime.of(2017, 1, 1, 15, 0);
+
+	private static final int IP = 1;
+
+	@Autowired
+	private DaemonService daemon;
+
+	@Autowired
+	private ThresholdIndex index;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private Environment env;
+
+	private void insert(final int ip, final LocalDateTime date, final int requests) {
+		final UUID startId = UUID.randomUUID();
+		final AtomicLong sequence = new AtomicLong();
+		final List<Object[]> rows = new LinkedList<>();
+		for (int r = 0; r < requests; r++) {
+			rows.add(new Object[] { ByteUtils.generatePK(startId, sequence), Timestamp.valueOf(date.plusSeconds(r)),
+					ip, "GET", 200, "test" });
+		}
+		jdbcTemplate.batchUpdate(env.getProperty("sql.insert"), rows);
+	}
+
+	@Test
+	public void countsRequestsAcrossARestart() {
+		insert(IP, START.minusHours(2), 3); // before the horizon
+		insert(IP, START, 150);
+		insert(2, START.plusMinutes(30), 1); // newest row, horizon at 13:30
+		daemon.load();
+
+		assertThat(index.getHorizon()).isEqualTo(START.minusMinutes(90));
+		assertThat(index.covers(START.minusMinutes(90))).isTrue();
+		assertThat(index.covers(START.minusHours(2))).isFalse();
+		assertThat(index.count(IP, START, START.plusHours(1))).isEqualTo(150);
+		assertThatThrownBy(() -> index.count(IP, START.minusHours(2), START.minusHours(1)))
+				.isInstanceOf(IllegalArgumentException.class);
+
+		// the rest of the window arrives after the restart
+		final LogBatch batch = new LogBatch(100);
+		for (int r = 0; r < 100; r++) {
+			batch.add(Timestamp.valueOf(START.plusMinutes(40).plusSeconds(r)).getTime(), IP, "GET", 200, "test");
+		}
+		index.add(batch);
+		assertThat(index.threshold(START, START.plusHours(1), 200)).containsOnlyKeys(IP).containsEntry(IP, 250);
+	}
+}
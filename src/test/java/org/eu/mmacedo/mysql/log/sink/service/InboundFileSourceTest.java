@@ -0,0 +1,112 @@
+package org.eu.mmacedo.mysql.log.sink.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class InboundFileSourceTest {
+
+	private final List<String> rows = new CopyOnWriteArrayList<>();
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	private final InboundFileSource source = new InboundFileSource();
+
+	@Before
+	public void setUp() {
+		ReflectionTestUtils.setField(source, "theExecutor", executor);
+		ReflectionTestUtils.setField(source, "countDownLatch", new CountDownLatch(0));
+		ReflectionTestUtils.setField(source, "aggregator", new BatchAggregatorService() {
+			@Override
+			public void run(final long date, final int ip, final String method, final int response,
+					final String agent) {
+				rows.add(new Timestamp(date) + " " + ip + " " + method + " " + response + " " + agent);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void end() {
+			}
+		});
+		ReflectionTestUtils.setField(source, "followDelay", 10L);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void parsesRowsAndSkipsMalformedOnes() throws Exception {
+		final Path log = Files.createTempFile("access", ".log");
+		try {
+			Files.write(log, ("2017-01-01 00:00:11.763|192.168.234.82|\"GET / HTTP/1.1\"|200|\"swcd\"\r\n"
+					+ "garbage\n" + "2017-01-01 00:00:12.000|host.example|\"GET\"|200|\"a\"\n"
+					+ "2017-01-01 00:00:12.000|10.0.0.1|\"GET\"|2x0|\"a\"\n" + "\n"
+					+ "2017-01-01 00:00:13.000|10.0.0.1|\"POST\"|404|\"Ümlaut\"").getBytes(StandardCharsets.UTF_8));
+			source.run(log.toString());
+		} finally {
+			Files.delete(log);
+		}
+		assertThat(rows).containsExactlyInAnyOrder(
+				"2017-01-01 00:00:11.763 -1062671790 \"GET / HTTP/1.1\" 200 \"swcd\"",
+				"2017-01-01 00:00:13.0 167772161 \"POST\" 404 \"Ümlaut\"");
+	}
+
+	private static String line(final int second) {
+		return "2017-01-01 00:00:" + (10 + second) + ".000|10.0.0." + second + "|\"GET\"|200|\"a\"";
+	}
+
+	private List<String> follow(final String existing, final String appended) throws Exception {
+		final Path log = Files.createTempFile("access", ".log");
+		final ExecutorService follower = Executors.newSingleThreadExecutor();
+		try {
+			Files.write(log, existing.getBytes(StandardCharsets.UTF_8));
+			final Future<?> following = follower.submit(() -> {
+				source.follow(log.toString(), false);
+				return null;
+			});
+			Thread.sleep(200); // opened at the end of file
+			Files.write(log, appended.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+			for (int i = 0; i < 100 && rows.isEmpty(); i++) {
+				Thread.sleep(20);
+			}
+			Thread.sleep(100);
+			following.cancel(true);
+		} finally {
+			follower.shutdownNow();
+			Files.delete(log);
+		}
+		return rows;
+	}
+
+	@Test
+	public void followsFromEndOfFileSkippingAPartialLine() throws Exception {
+		// the rest of the line being written would pass for a row of its own
+		assertThat(follow(line(1) + "\nnot a row ", line(2) + "\n" + line(3) + "\n")).hasSize(1)
+				.allMatch(r -> r.endsWith(" 167772163 \"GET\" 200 \"a\""));
+	}
+
+	@Test
+	public void followsFromEndOfFileAtALineStart() throws Exception {
+		assertThat(follow(line(1) + "\n", line(2) + "\n" + line(3) + "\n")).hasSize(2);
+	}
+}
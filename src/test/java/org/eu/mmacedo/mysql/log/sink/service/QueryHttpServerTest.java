@@ -0,0 +1,71 @@
+package org.eu.mmacedo.mysql.log.sink.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Scanner;
+
+import org.eu.mmacedo.mysql.log.sink.domain.LogBatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "spring.datasource.url=jdbc:h2:mem:http;MODE=MySQL;DB_CLOSE_DELAY=-1",
+		"spring.datasource.driverClassName=org.h2.Driver", "http.port=18089", "logging.file=target/test.log" })
+public class QueryHttpServerTest {
+
+	private static final LocalDateTime START = LocalDateTime.of(2017, 1, 1, 15, 0);
+
+	@Autowired
+	private QueryHttpServer http;
+
+	@Autowired
+	private ThresholdIndex index;
+
+	@Before
+	public void setUp() throws IOException {
+		final LogBatch batch = new LogBatch(3);
+		for (int r = 0; r < 3; r++) {
+			batch.add(Timestamp.valueOf(START.plusMinutes(r)).getTime(), 0xC0A80101, "GET", 200, "test");
+		}
+		index.startAt(batch.getDate(2)); // as if loaded from an empty log table
+		index.add(batch);
+		http.start();
+	}
+
+	@After
+	public void tearDown() {
+		http.stop();
+	}
+
+	private static String get(final String query) throws IOException {
+		final HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:18089" + query).openConnection();
+		final int status = c.getResponseCode();
+		try (InputStream in = status < 400 ? c.getInputStream() : c.getErrorStream();
+				Scanner s = new Scanner(in, StandardCharsets.UTF_8.name())) {
+			return status + " " + (s.hasNextLine() ? s.nextLine() : "");
+		}
+	}
+
+	@Test
+	public void answersFromTheIndexAndRefusesBadInput() throws IOException {
+		assertThat(get("/requests?ip=192.168.1.1&start=2017-01-01.15:00:00&duration=hourly")).isEqualTo("200 3");
+		assertThat(get("/threshold?start=2017-01-01.15:00:00&duration=hourly&limit=3"))
+				.isEqualTo("200 192.168.1.1\t3");
+		assertThat(get("/requests?ip=localhost&start=2017-01-01.15:00:00&duration=hourly")).startsWith("400 ");
+		assertThat(get("/requests?ip=2001:db8::1&start=2017-01-01.15:00:00&duration=hourly")).startsWith("400 ");
+		// before the retention horizon
+		assertThat(get("/threshold?start=2016-12-01.15:00:00&duration=daily&limit=3")).startsWith("400 Index starts");
+	}
+}
@@ -0,0 +1,36 @@
+package org.eu.mmacedo.mysql.log.sink.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class ShardRouterTest {
+
+	private static final String DEFAULTS = "jdbc:mysql://localhost:3306/log?user=root&password=abc123"
+			+ "&useServerPrepStmts=false&rewriteBatchedStatements=true"
+			+ "&sessionVariables=@@global.general_log=OFF,bulk_insert_buffer_size=16777216,SQL_LOG_BIN=0&useSSL=false";
+
+	@Test
+	public void shardInheritsDefaultOptions() {
+		assertThat(ShardRouter.withOptions("jdbc:mysql://db1:3306/log", DEFAULTS))
+				.isEqualTo("jdbc:mysql://db1:3306/log" + DEFAULTS.substring(DEFAULTS.indexOf('?')));
+	}
+
+	@Test
+	public void shardOptionsWin() {
+		assertThat(ShardRouter.withOptions("jdbc:mysql://db1:3306/log?password=secret&useSSL=true", DEFAULTS))
+				.isEqualTo("jdbc:mysql://db1:3306/log?user=root&password=secret"
+						+ "&useServerPrepStmts=false&rewriteBatchedStatements=true"
+						+ "&sessionVariables=@@global.general_log=OFF,bulk_insert_buffer_size=16777216,SQL_LOG_BIN=0"
+						+ "&useSSL=true");
+	}
+
+	@Test
+	public void otherDriversAreLeftAlone() {
+		final String h2 = "jdbc:h2:mem:shard0;MODE=MySQL";
+		assertThat(ShardRouter.withOptions(h2, DEFAULTS)).isEqualTo(h2);
+		assertThat(ShardRouter.withOptions("jdbc:mysql://db1/log", "jdbc:h2:mem:primary"))
+				.isEqualTo("jdbc:mysql://db1/log");
+		assertThat(ShardRouter.withOptions("jdbc:mysql://db1/log", null)).isEqualTo("jdbc:mysql://db1/log");
+	}
+}
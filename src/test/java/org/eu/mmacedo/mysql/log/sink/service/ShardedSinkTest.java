@@ -0,0 +1,132 @@
+package org.eu.mmacedo.mysql.log.sink.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eu.mmacedo.mysql.log.sink.domain.LogBatch;
+import org.eu.mmacedo.mysql.log.sink.util.ByteUtils;
+import org.eu.mmacedo.mysql.log.sink.util.LogBatchPool;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Three embedded H2 shards in MySQL mode against a single H2 database
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "spring.datasource.url=" + ShardedSinkTest.PRIMARY,
+		"spring.datasource.driverClassName=org.h2.Driver", "shards=" + ShardedSinkTest.SHARDS,
+		"logging.file=target/test.log" })
+public class ShardedSinkTest {
+
+	private static final String H2 = ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+	static final String PRIMARY = "jdbc:h2:mem:primary" + H2;
+
+	static final String SHARDS = "jdbc:h2:mem:shard0" + H2 + ";jdbc:h2:mem:shard1" + H2 + ";jdbc:h2:mem:shard2"
+			+ H2;
+
+	private static final LocalDateTime START = LocalDateTime.of(2017, 1, 1, 15, 0);
+
+	private static final int IPS = 60;
+
+	private static final int THRESHOLD = 30;
+
+	@Autowired
+	private OutboundMysqlSink sink;
+
+	@Autowired
+	private QueryThresholdService qry;
+
+	@Autowired
+	private ShardRouter router;
+
+	@Autowired
+	private LogBatchPool batchPool;
+
+	@Autowired
+	private LinkedTransferQueue<Optional<LogBatch>> batchqueue;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private Environment env;
+
+	private static long getDate(final int request) {
+		return Timestamp.valueOf(START.plusSeconds(request)).getTime();
+	}
+
+	/**
+	 * IP n makes n requests inside the hour
+	 */
+	private LogBatch getRows() {
+		final LogBatch batch = batchPool.acquire();
+		for (int ip = 1; ip <= IPS; ip++) {
+			for (int r = 0; r < ip; r++) {
+				batch.add(getDate(r), ip, "GET", 200, "test");
+			}
+		}
+		return batch;
+	}
+
+	private void insertSingle(final LogBatch batch) {
+		final UUID startId = UUID.randomUUID();
+		final AtomicLong sequence = new AtomicLong();
+		final List<Object[]> rows = new LinkedList<>();
+		for (int i = 0; i < batch.size(); i++) {
+			rows.add(new Object[] { ByteUtils.generatePK(startId, sequence), new Timestamp(batch.getDate(i)),
+					batch.getIp(i), batch.getMethod(i), batch.getResponse(i), batch.getAgent(i) });
+		}
+		jdbcTemplate.batchUpdate(env.getProperty("sql.insert"), rows);
+	}
+
+	@Test
+	public void routesEveryIpToOneShardAndGathersLikeASingleDatabase() throws Exception {
+		assertThat(router.getShards()).hasSize(3);
+		final LogBatch rows = getRows();
+		insertSingle(rows);
+		batchqueue.put(Optional.of(rows));
+		batchqueue.put(Optional.empty());
+		sink.run();
+
+		final Set<Integer> seen = new HashSet<>();
+		int total = 0;
+		for (int s = 0; s < router.getShards().size(); s++) {
+			final JdbcTemplate shard = router.getShards().get(s);
+			final List<Integer> ips = shard.queryForList("SELECT DISTINCT `IP` FROM log", Integer.class);
+			assertThat(ips).isNotEmpty();
+			for (final Integer ip : ips) {
+				assertThat(router.shardOf(ip)).isEqualTo(s);
+				assertThat(seen.add(ip)).as("IP %d on a single shard", ip).isTrue();
+			}
+			total += shard.queryForObject("SELECT count(*) FROM log", Integer.class);
+		}
+		assertThat(seen).hasSize(IPS);
+		assertThat(total).isEqualTo(IPS * (IPS + 1) / 2);
+
+		final ByteBuffer buffer = ByteBuffer.allocate(4);
+		final Object[] args = { START, START.plusHours(1), THRESHOLD };
+		final List<String> single = jdbcTemplate.query(env.getProperty("sql.threshold"), args,
+				(rs, i) -> ByteUtils.getIPfromInteger(rs.getInt(1), buffer));
+		final List<String> gathered = qry.threshold(START, START.plusHours(1), THRESHOLD);
+		assertThat(single).hasSize(IPS - THRESHOLD + 1);
+		assertThat(gathered).hasSameSizeAs(single);
+		assertThat(new HashSet<>(gathered)).isEqualTo(new HashSet<>(single));
+	}
+}
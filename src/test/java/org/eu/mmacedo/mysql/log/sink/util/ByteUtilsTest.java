@@ -0,0 +1,48 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ByteUtilsTest {
+
+	@Test
+	public void longsToBytesBigEndian() {
+		final long ms = 0x0123456789ABCDEFL;
+		final long ls = -2L;
+		assertThat(ByteUtils.longToBytes(ms, ls)).isEqualTo(ByteBuffer.allocate(16).putLong(ms).putLong(ls).array());
+	}
+
+	private static int parseIPv4(final String ip) {
+		final byte[] b = ("|" + ip + "|").getBytes(StandardCharsets.UTF_8);
+		return ByteUtils.parseIPv4(b, 1, b.length - 1);
+	}
+
+	@Test
+	public void parsesDottedQuads() throws Exception {
+		for (final String ip : new String[] { "0.0.0.0", "192.168.1.1", "255.255.255.255", "10.0.0.255", "1.2.3.4" }) {
+			assertThat(parseIPv4(ip)).as(ip).isEqualTo(ByteUtils.getIntFromIp(ip));
+		}
+		assertThat(parseIPv4("010.001.000.009")).isEqualTo(ByteUtils.getIntFromIp("10.1.0.9"));
+	}
+
+	@Test
+	public void rejectsAnythingElse() {
+		for (final String ip : new String[] { "", "1.2.3", "1.2.3.4.5", "1.2.3.256", "1.2.3.", ".1.2.3", "1..2.3",
+				"1.2.3.4 ", "a.b.c.d", "localhost", "2001:db8::1", "1234.1.1.1", "1.2.3.-4" }) {
+			assertThatThrownBy(() -> parseIPv4(ip)).as(ip).isInstanceOf(IllegalArgumentException.class);
+		}
+	}
+
+	@Test
+	public void parsesOnlyDottedQuadStrings() throws Exception {
+		assertThat(ByteUtils.parseIPv4("192.168.1.1")).isEqualTo(ByteUtils.getIntFromIp("192.168.1.1"));
+		for (final String ip : new String[] { "localhost", "2001:db8::1", "::ffff:1.2.3.4", "1.2.3.\u0664" }) {
+			assertThatThrownBy(() -> ByteUtils.parseIPv4(ip)).as(ip).isInstanceOf(IllegalArgumentException.class);
+		}
+	}
+}
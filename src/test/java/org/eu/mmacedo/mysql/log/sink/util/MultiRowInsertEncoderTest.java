@@ -0,0 +1,113 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class MultiRowInsertEncoderTest {
+
+	private static final String PREFIX = "INSERT INTO log VALUES";
+
+	private static final String ID = "X'00000000000000010000000000000002'";
+
+	private static final long DATE = millis(LocalDateTime.of(2017, 3, 4, 5, 6, 7, 8_000_000));
+
+	private static long millis(final LocalDateTime date) {
+		return Timestamp.valueOf(date).getTime();
+	}
+
+	private static boolean append(final MultiRowInsertEncoder encoder, final long date, final String agent) {
+		return encoder.append(1L, 2L, date, 3, "GET", 200, agent);
+	}
+
+	private static String row(final String date, final String agent) {
+		return "(" + ID + ",'" + date + "',3,'GET',200,'" + agent + "')";
+	}
+
+	private static String encode(final String agent) {
+		final MultiRowInsertEncoder encoder = new MultiRowInsertEncoder(PREFIX, 1 << 16);
+		assertThat(append(encoder, DATE, agent)).isTrue();
+		assertThat(encoder.bytes()).isEqualTo(encoder.getSql().getBytes(StandardCharsets.UTF_8).length);
+		return encoder.getSql();
+	}
+
+	@Test
+	public void escapesQuotesAndBackslash() {
+		assertThat(encode("it's \\ \"x\""))
+				.isEqualTo(PREFIX + " " + row("2017-03-04 05:06:07.008", "it\\'s \\\\ \\\"x\\\""));
+	}
+
+	@Test
+	public void escapesControlCharacters() {
+		assertThat(encode("a\0b\r\nc\u001Ad"))
+				.isEqualTo(PREFIX + " " + row("2017-03-04 05:06:07.008", "a\\0b\\r\\nc\\Zd"));
+	}
+
+	@Test
+	public void countsUtf8Bytes() {
+		// 2, 3 and 4 byte sequences, the last one a surrogate pair
+		final String agent = "\u00FC\u20AC\uD83D\uDE00";
+		assertThat(encode(agent)).isEqualTo(PREFIX + " " + row("2017-03-04 05:06:07.008", agent));
+	}
+
+	@Test
+	public void padsDates() {
+		assertThat(encode("a")).contains("'2017-03-04 05:06:07.008'");
+		final MultiRowInsertEncoder encoder = new MultiRowInsertEncoder(PREFIX, 1 << 16);
+		append(encoder, millis(LocalDateTime.of(2017, 1, 1, 0, 0)), "a");
+		assertThat(encoder.getSql()).isEqualTo(PREFIX + " " + row("2017-01-01 00:00:00.000", "a"));
+	}
+
+	@Test
+	public void writesIsoYearsInAnyLocale() {
+		final Locale locale = Locale.getDefault();
+		try {
+			for (final Locale l : new Locale[] { new Locale("th", "TH"), new Locale("ja", "JP", "JP") }) {
+				Locale.setDefault(l);
+				assertThat(encode("a")).as(l.toString()).contains("'2017-03-04 05:06:07.008'");
+			}
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+	@Test
+	public void splitsAtMaxBytes() {
+		final int oneRow = PREFIX.length() + 1 + row("2017-03-04 05:06:07.008", "a").length();
+		final MultiRowInsertEncoder encoder = new MultiRowInsertEncoder(PREFIX, oneRow + 5);
+		assertThat(append(encoder, DATE, "a")).isTrue();
+		final String sql = encoder.getSql();
+		assertThat(append(encoder, DATE, "a")).isFalse();
+		assertThat(encoder.getSql()).isEqualTo(sql);
+		assertThat(encoder.bytes()).isEqualTo(oneRow);
+		assertThat(encoder.rows()).isEqualTo(1);
+
+		encoder.reset();
+		assertThat(append(encoder, DATE, "a")).isTrue();
+		assertThat(encoder.getSql()).isEqualTo(sql);
+	}
+
+	@Test
+	public void acceptsOversizedFirstRow() {
+		final MultiRowInsertEncoder encoder = new MultiRowInsertEncoder(PREFIX, 10);
+		assertThat(append(encoder, DATE, "a")).isTrue();
+		assertThat(encoder.rows()).isEqualTo(1);
+		assertThat(append(encoder, DATE, "b")).isFalse();
+		assertThat(encoder.rows()).isEqualTo(1);
+	}
+
+	@Test
+	public void separatesRows() {
+		final MultiRowInsertEncoder encoder = new MultiRowInsertEncoder(PREFIX, 1 << 16);
+		append(encoder, DATE, "a");
+		append(encoder, DATE, "b");
+		assertThat(encoder.getSql()).isEqualTo(PREFIX + " " + row("2017-03-04 05:06:07.008", "a") + ","
+				+ row("2017-03-04 05:06:07.008", "b"));
+		assertThat(encoder.rows()).isEqualTo(2);
+	}
+}
@@ -0,0 +1,29 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class SchemaVersionTest {
+
+	@Test
+	public void comparesNumerically() {
+		assertThat(SchemaVersion.compare("1.1.10", "1.1.9")).isPositive();
+		assertThat(SchemaVersion.compare("1.1.2", "1.1.2")).isZero();
+		assertThat(SchemaVersion.compare("1.1", "1.1.0")).isZero();
+		assertThat(SchemaVersion.compare("1.1.2", "1.2")).isNegative();
+	}
+
+	@Test
+	public void latestIgnoresNonVersionedFiles() {
+		assertThat(SchemaVersion.latest(Stream.of("V1_1_0__log_table.sql", "V1_1_10__later.sql",
+				"V1_1_9__earlier.sql", "R__repeatable.sql", "README.md"))).isEqualTo("1.1.10");
+	}
+
+	@Test
+	public void latestOfNothingIsNull() {
+		assertThat(SchemaVersion.latest(Stream.of("R__repeatable.sql"))).isNull();
+	}
+}
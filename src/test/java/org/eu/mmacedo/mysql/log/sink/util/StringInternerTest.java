@@ -0,0 +1,34 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class StringInternerTest {
+
+	private static final byte[] LINE = "x|GET|\"Mozilla/5.0 (Ümlaut)\"|GET|".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	public void returnsOneInstancePerValue() {
+		final StringInterner interner = new StringInterner(16);
+		final String get = interner.intern(LINE, 2, 5);
+		assertThat(get).isEqualTo("GET");
+		final int agent = 6;
+		final int agentEnd = LINE.length - 5;
+		assertThat(interner.intern(LINE, agent, agentEnd)).isEqualTo("\"Mozilla/5.0 (Ümlaut)\"");
+		assertThat(interner.intern(LINE, LINE.length - 4, LINE.length - 1)).isSameAs(get);
+		assertThat(interner.intern(LINE, 2, 2)).isEmpty();
+	}
+
+	@Test
+	public void stopsGrowingAtMaxSize() {
+		final StringInterner interner = new StringInterner(1);
+		final String get = interner.intern(LINE, 2, 5);
+		final String x = interner.intern(LINE, 0, 1);
+		assertThat(x).isEqualTo("x");
+		assertThat(interner.intern(LINE, 0, 1)).isEqualTo("x").isNotSameAs(x);
+		assertThat(interner.intern(LINE, 2, 5)).isSameAs(get);
+	}
+}
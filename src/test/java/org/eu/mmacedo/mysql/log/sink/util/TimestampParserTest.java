@@ -0,0 +1,67 @@
+package org.eu.mmacedo.mysql.log.sink.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimestampParserTest {
+
+	private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+	private static long parse(final TimestampParser parser, final String date) {
+		final byte[] b = ("|" + date + "|").getBytes(StandardCharsets.UTF_8);
+		return parser.parse(b, 1, b.length - 1);
+	}
+
+	private static long expected(final String date) {
+		return Timestamp.valueOf(LocalDateTime.parse(date, FORMATTER)).getTime();
+	}
+
+	@Test
+	public void matchesTimestampValueOfAcrossZones() {
+		final TimeZone zone = TimeZone.getDefault();
+		final Locale locale = Locale.getDefault();
+		try {
+			Locale.setDefault(new Locale("th", "TH"));
+			for (final String id : new String[] { "UTC", "America/Sao_Paulo", "Australia/Lord_Howe" }) {
+				TimeZone.setDefault(TimeZone.getTimeZone(id));
+				final TimestampParser parser = new TimestampParser();
+				// every 7 minutes and some, through DST changes of both hemispheres
+				for (LocalDateTime d = LocalDateTime.of(2016, 12, 31, 23, 0); d.getYear() < 2018; d = d
+						.plusSeconds(427).plusNanos(1_000_000)) {
+					final String date = FORMATTER.format(d);
+					assertThat(parse(parser, date)).as("%s in %s", date, id).isEqualTo(expected(date));
+				}
+			}
+		} finally {
+			TimeZone.setDefault(zone);
+			Locale.setDefault(locale);
+		}
+	}
+
+	@Test
+	public void clampsDayToMonthLikeSmartResolver() {
+		final TimestampParser parser = new TimestampParser();
+		assertThat(parse(parser, "2017-02-30 10:00:00.000")).isEqualTo(expected("2017-02-30 10:00:00.000"));
+		assertThat(parse(parser, "2016-02-29 10:00:00.000")).isEqualTo(expected("2016-02-29 10:00:00.000"));
+		assertThat(parse(parser, "2017-04-31 10:00:00.000")).isEqualTo(expected("2017-04-31 10:00:00.000"));
+	}
+
+	@Test
+	public void rejectsMalformedDates() {
+		final TimestampParser parser = new TimestampParser();
+		for (final String date : new String[] { "2017-01-01 10:00:00", "2017-01-01T10:00:00.000",
+				"2017-13-01 10:00:00.000", "2017-01-32 10:00:00.000", "2017-01-01 24:00:00.000",
+				"2017-01-01 10:60:00.000", "2017-0a-01 10:00:00.000", "" }) {
+			assertThatThrownBy(() -> parse(parser, date)).as(date).isInstanceOf(IllegalArgumentException.class);
+		}
+	}
+}